@@ -0,0 +1,28 @@
+package com.kaymlyn.audiovisualizer.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of target/benchmarks.jar. Takes the usual JMH command line and always adds the gc profiler, so every
+ * stage reports its allocation rate next to its throughput. For example, to run only the decode stage:
+ * <pre>
+ * mvn -Pbenchmarks package
+ * java -jar target/benchmarks.jar DecodeBenchmark -p bits=16,24
+ * </pre>
+ */
+public final class Benchmarks {
+
+    private Benchmarks() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build())
+                .run();
+    }
+}
@@ -0,0 +1,65 @@
+package com.kaymlyn.audiovisualizer.bench;
+
+import com.kaymlyn.audiovisualizer.audio.AudioProcessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.sound.sampled.AudioFormat;
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+//PCM bytes to int samples, in one call and chunked through streamAudio
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecodeBenchmark {
+
+    @Param({"8", "16", "24", "32"})
+    public int bits;
+
+    @Param({"1", "2"})
+    public int channels;
+
+    //one second and one minute at 44.1 kHz
+    @Param({"44100", "2646000"})
+    public int frames;
+
+    private AudioProcessor processor;
+    private AudioFormat format;
+    private byte[] pcm;
+    private int[] samples;
+
+    @Setup
+    public void setUp() {
+        PcmRoundTrip.check();
+        processor = new AudioProcessor(new Rectangle(600, 200), Color.BLACK, Color.BLUE, Color.RED);
+        format = SyntheticAudio.format(bits, channels);
+        pcm = SyntheticAudio.pcm(format, frames);
+        samples = new int[frames * channels];
+    }
+
+    @Benchmark
+    public int decode() {
+        return processor.decodeAudio(format, pcm, pcm.length, samples);
+    }
+
+    @Benchmark
+    public long stream(Blackhole blackhole) throws IOException {
+        return processor.streamAudio(SyntheticAudio.stream(format, pcm), (chunk, length) -> blackhole.consume(chunk));
+    }
+}
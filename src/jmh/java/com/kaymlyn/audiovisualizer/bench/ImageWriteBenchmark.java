@@ -0,0 +1,81 @@
+package com.kaymlyn.audiovisualizer.bench;
+
+import com.kaymlyn.audiovisualizer.audio.AudioProcessor.Canvas;
+import com.kaymlyn.audiovisualizer.audio.wave.AudioWaveformRenderer;
+import com.kaymlyn.audiovisualizer.audio.wave.Fading.Fade;
+import com.kaymlyn.audiovisualizer.image.ImageOutput;
+import com.kaymlyn.audiovisualizer.image.PngOptions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+//encoding a rendered waveform as PNG, in memory so disk speed stays out of the numbers
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageWriteBenchmark {
+
+    @Param({"600", "2000", "8000"})
+    public int width;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    private BufferedImage image;
+    private ByteArrayOutputStream output;
+    private ImageOutput indexed;
+    private ImageOutput truecolor;
+
+    @Setup
+    public void setUp() {
+        ImageIO.setUseCache(false);
+        Canvas canvas = new Canvas(new Rectangle(width, 200), new Color(20, 20, 20), new Color(0, 0, 255),
+                new Color(71, 4, 2));
+        image = new AudioWaveformRenderer(SyntheticAudio.peaks(SyntheticAudio.samples(441000, 2), 2), canvas, null)
+                .withFade(new Fade(1, 1, 1))
+                .renderToImage(width);
+        output = new ByteArrayOutputStream(width * 200 * 4);
+        indexed = ImageOutput.DEFAULT.withPng(PngOptions.DEFAULT.withParallelism(parallelism));
+        truecolor = indexed.withPng(PngOptions.DEFAULT.withParallelism(parallelism).withPalette(false));
+    }
+
+    @Benchmark
+    public int png() throws IOException {
+        output.reset();
+        ImageIO.write(image, "png", output);
+        return output.size();
+    }
+
+    @Benchmark
+    public int pngEncoder() throws IOException {
+        output.reset();
+        truecolor.write(image, "png", output);
+        return output.size();
+    }
+
+    @Benchmark
+    public int pngEncoderIndexed() throws IOException {
+        output.reset();
+        indexed.write(image, "png", output);
+        return output.size();
+    }
+}
@@ -0,0 +1,69 @@
+package com.kaymlyn.audiovisualizer.bench;
+
+import com.kaymlyn.audiovisualizer.audio.AudioProcessor;
+import com.kaymlyn.audiovisualizer.audio.Normalizer;
+import com.kaymlyn.audiovisualizer.audio.wave.Waveform;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.util.concurrent.TimeUnit;
+
+//peak search and scaling of decoded samples, the work behind Waveform.balance
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NormalizeBenchmark {
+
+    @Param({"1", "2"})
+    public int channels;
+
+    @Param({"44100", "2646000"})
+    public int frames;
+
+    private Waveform waveform;
+    private int[] samples;
+    private double[] scaled;
+
+    @Setup
+    public void setUp() {
+        samples = SyntheticAudio.samples(frames, channels);
+        scaled = new double[samples.length];
+        AudioProcessor processor = new AudioProcessor(new Rectangle(600, 200), Color.BLACK, Color.BLUE, Color.RED);
+        waveform = new Waveform(processor, SyntheticAudio.format(16, channels),
+                SyntheticAudio.peaks(SyntheticAudio.samples(1024, channels), channels));
+    }
+
+    @Benchmark
+    public double[] balance() {
+        return waveform.balance(samples, samples.length, scaled);
+    }
+
+    @Benchmark
+    public int peak() {
+        return Normalizer.peak(samples, samples.length);
+    }
+
+    @Benchmark
+    public int[] channelPeaks() {
+        return Normalizer.channelPeaks(samples, samples.length, channels);
+    }
+
+    @Benchmark
+    public int percentilePeak() {
+        return Normalizer.percentilePeak(samples, samples.length, 0.999);
+    }
+}
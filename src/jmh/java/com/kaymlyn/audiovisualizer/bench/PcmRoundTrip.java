@@ -0,0 +1,82 @@
+package com.kaymlyn.audiovisualizer.bench;
+
+import com.kaymlyn.audiovisualizer.audio.PcmDecoder;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.Arrays;
+
+/**
+ * Encodes known samples in every format PcmDecoder supports, every width, signedness and byte order, and checks that
+ * decoding gives them back. DecodeBenchmark runs it before measuring, so a wrong decoder is never benchmarked; on its
+ * own it runs with
+ * <pre>
+ * java -cp target/benchmarks.jar com.kaymlyn.audiovisualizer.bench.PcmRoundTrip
+ * </pre>
+ */
+public final class PcmRoundTrip {
+
+    private PcmRoundTrip() {
+    }
+
+    public static void main(String[] args) {
+        check();
+        System.out.println("PCM round trip passed.");
+    }
+
+    //throws an AssertionError naming the first format that does not round trip
+    static void check() {
+        for (int bits : new int[]{8, 16, 24, 32}) {
+            long full = 1L << (bits - 1);
+            //the extremes, silence and its neighbours, and a value with every byte distinct
+            int[] expected = {(int) -full, (int) (-full + 1), -1, 0, 1, (int) (full - 1), (int) (0x5A3C1E0FL >> (32 - bits))};
+            for (boolean signed : new boolean[]{true, false}) {
+                for (boolean bigEndian : new boolean[]{false, true}) {
+                    AudioFormat format = new AudioFormat(SyntheticAudio.SAMPLE_RATE, bits, 1, signed, bigEndian);
+                    byte[] pcm = new byte[expected.length * bits / 8];
+                    for (int i = 0; i < expected.length; i++) {
+                        //unsigned PCM stores the sample offset by half the range
+                        long stored = signed ? expected[i] : expected[i] + full;
+                        for (int b = 0; b < bits / 8; b++) {
+                            int index = i * bits / 8 + (bigEndian ? bits / 8 - 1 - b : b);
+                            pcm[index] = (byte) (stored >> (8 * b));
+                        }
+                    }
+                    verify(format, pcm, expected);
+                }
+            }
+        }
+
+        double[] values = {-1, -0.5, 0, 0.25, 1};
+        int[] expected = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            expected[i] = (int) (values[i] * PcmDecoder.fullScale(
+                    new AudioFormat(AudioFormat.Encoding.PCM_FLOAT, SyntheticAudio.SAMPLE_RATE, 32, 1, 4,
+                            SyntheticAudio.SAMPLE_RATE, false)));
+        }
+        for (int bits : new int[]{32, 64}) {
+            for (boolean bigEndian : new boolean[]{false, true}) {
+                AudioFormat format = new AudioFormat(AudioFormat.Encoding.PCM_FLOAT, SyntheticAudio.SAMPLE_RATE, bits,
+                        1, bits / 8, SyntheticAudio.SAMPLE_RATE, bigEndian);
+                byte[] pcm = new byte[values.length * bits / 8];
+                for (int i = 0; i < values.length; i++) {
+                    long stored = bits == 32 ? Float.floatToIntBits((float) values[i])
+                            : Double.doubleToLongBits(values[i]);
+                    for (int b = 0; b < bits / 8; b++) {
+                        int index = i * bits / 8 + (bigEndian ? bits / 8 - 1 - b : b);
+                        pcm[index] = (byte) (stored >> (8 * b));
+                    }
+                }
+                verify(format, pcm, expected);
+            }
+        }
+    }
+
+    private static void verify(AudioFormat format, byte[] pcm, int[] expected) {
+        int[] decoded = new int[expected.length];
+        PcmDecoder.decode(format, pcm, 0, pcm.length, decoded);
+        if (!Arrays.equals(decoded, expected)) {
+            throw new AssertionError(format + " decoded to " + Arrays.toString(decoded) + " instead of "
+                    + Arrays.toString(expected));
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.kaymlyn.audiovisualizer.bench;
+
+import com.kaymlyn.audiovisualizer.audio.AudioProcessor.Canvas;
+import com.kaymlyn.audiovisualizer.audio.AudioProcessor.InfoBlock;
+import com.kaymlyn.audiovisualizer.audio.wave.AudioWaveformRenderer;
+import com.kaymlyn.audiovisualizer.audio.wave.AudioWaveformRenderer.Rasterization;
+import com.kaymlyn.audiovisualizer.audio.wave.Fading.Fade;
+import com.kaymlyn.audiovisualizer.audio.wave.ScrollingWaveformRenderer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+//one frame of a minute of stereo audio, rendered from scratch and scrolled on from the previous frame
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenderBenchmark {
+
+    private static final int FRAMES = 2646000;
+    //columns moved per scrolled frame
+    private static final int SCROLL = 2;
+
+    @Param({"600", "2000"})
+    public int width;
+
+    @Param({"false", "true"})
+    public boolean fade;
+
+    @Param({"DIRECT", "JAVA2D"})
+    public Rasterization rasterization;
+
+    private AudioWaveformRenderer renderer;
+    private ScrollingWaveformRenderer scrolling;
+    private int offset;
+
+    @Setup
+    public void setUp() {
+        Canvas canvas = new Canvas(new Rectangle(width, 200), new Color(20, 20, 20), new Color(0, 0, 255),
+                new Color(71, 4, 2));
+        InfoBlock info = new InfoBlock(new Font("serif", Font.PLAIN, 12), Color.white, Color.blue, "File: synthetic");
+        renderer = new AudioWaveformRenderer(SyntheticAudio.peaks(SyntheticAudio.samples(FRAMES, 2), 2), canvas, info)
+                .withFade(fade ? new Fade(1, 1, 1) : new Fade(0, 0, 0))
+                .withZoom(64)
+                .withRasterization(rasterization);
+        scrolling = renderer.scrolling();
+        offset = width;
+    }
+
+    @Benchmark
+    public BufferedImage render() {
+        return renderer.renderToImage(width);
+    }
+
+    @Benchmark
+    public BufferedImage scroll() {
+        offset += SCROLL;
+        if (offset > FRAMES / 64) {
+            offset = width;
+        }
+        return scrolling.renderToImage(offset);
+    }
+}
@@ -0,0 +1,87 @@
+package com.kaymlyn.audiovisualizer.bench;
+
+import com.kaymlyn.audiovisualizer.audio.AudioProcessor;
+import com.kaymlyn.audiovisualizer.audio.wave.PeakPyramid;
+import com.kaymlyn.audiovisualizer.audio.wave.Waveform;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+
+/**
+ * Deterministic PCM fixtures: a few beating tones under a slow envelope plus a little noise, so the waveform has
+ * structure at every zoom level and every bit of a sample carries information.
+ */
+final class SyntheticAudio {
+
+    static final float SAMPLE_RATE = 44100;
+
+    private SyntheticAudio() {
+    }
+
+    //little endian PCM the way WAV stores it, 8 bit samples are unsigned
+    static AudioFormat format(int bits, int channels) {
+        return new AudioFormat(SAMPLE_RATE, bits, channels, bits > 8, false);
+    }
+
+    static byte[] pcm(AudioFormat format, int frames) {
+        int bytes = format.getSampleSizeInBits() / 8;
+        int channels = format.getChannels();
+        long full = (1L << (format.getSampleSizeInBits() - 1)) - 1;
+        Random random = new Random(42);
+        byte[] pcm = new byte[frames * channels * bytes];
+        int index = 0;
+        for (int frame = 0; frame < frames; frame++) {
+            for (int channel = 0; channel < channels; channel++) {
+                long sample = (long) (signal(frame, channel, random) * full);
+                if (bytes == 1) {
+                    sample += 128;
+                }
+                for (int b = 0; b < bytes; b++) {
+                    pcm[index++] = (byte) (sample >> (8 * b));
+                }
+            }
+        }
+        return pcm;
+    }
+
+    static AudioInputStream stream(AudioFormat format, byte[] pcm) {
+        return new AudioInputStream(new ByteArrayInputStream(pcm), format, pcm.length / format.getFrameSize());
+    }
+
+    //interleaved samples at the 24 bit scale decoded audio uses
+    static int[] samples(int frames, int channels) {
+        Random random = new Random(42);
+        int[] samples = new int[frames * channels];
+        for (int frame = 0, i = 0; frame < frames; frame++) {
+            for (int channel = 0; channel < channels; channel++) {
+                samples[i++] = (int) (signal(frame, channel, random) * 0x7FFFFF);
+            }
+        }
+        return samples;
+    }
+
+    //the complete pyramid Waveform would build, fed chunk by chunk
+    static PeakPyramid peaks(int[] samples, int channels) {
+        PeakPyramid peaks = new PeakPyramid(Waveform.COMPLETE_BUCKET_FRAMES, channels);
+        int chunk = AudioProcessor.CHUNK_FRAMES * channels;
+        int[] buffer = new int[chunk];
+        for (int offset = 0; offset < samples.length; offset += chunk) {
+            int length = Math.min(chunk, samples.length - offset);
+            System.arraycopy(samples, offset, buffer, 0, length);
+            peaks.accept(buffer, length);
+        }
+        peaks.finish();
+        return peaks;
+    }
+
+    private static double signal(int frame, int channel, Random random) {
+        double t = frame / SAMPLE_RATE;
+        double envelope = 0.5 + 0.4 * Math.sin(2 * Math.PI * 0.25 * t);
+        double tone = 0.5 * Math.sin(2 * Math.PI * (220 + channel) * t)
+                + 0.3 * Math.sin(2 * Math.PI * 331 * t)
+                + 0.2 * Math.sin(2 * Math.PI * 1760 * t);
+        return Math.max(-1, Math.min(1, envelope * tone * 0.9 + (random.nextDouble() - 0.5) * 0.02));
+    }
+}
@@ -0,0 +1,79 @@
+package com.kaymlyn.audiovisualizer.bench;
+
+import com.kaymlyn.audiovisualizer.audio.AudioProcessor;
+import com.kaymlyn.audiovisualizer.audio.wave.PeakPyramid;
+import com.kaymlyn.audiovisualizer.audio.wave.Waveform;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.sound.sampled.AudioFormat;
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+//waveform construction: the peak pyramid on its own and the whole stream to Waveform path
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WaveformBenchmark {
+
+    @Param({"16", "24"})
+    public int bits;
+
+    @Param({"1", "2"})
+    public int channels;
+
+    @Param({"44100", "2646000"})
+    public int frames;
+
+    private AudioProcessor processor;
+    private AudioFormat format;
+    private byte[] pcm;
+    private int[][] chunks;
+    private int[] chunkLengths;
+
+    @Setup
+    public void setUp() {
+        processor = new AudioProcessor(new Rectangle(600, 200), Color.BLACK, Color.BLUE, Color.RED);
+        format = SyntheticAudio.format(bits, channels);
+        pcm = SyntheticAudio.pcm(format, frames);
+
+        int[] samples = SyntheticAudio.samples(frames, channels);
+        int chunk = AudioProcessor.CHUNK_FRAMES * channels;
+        int count = (samples.length + chunk - 1) / chunk;
+        chunks = new int[count][chunk];
+        chunkLengths = new int[count];
+        for (int i = 0; i < count; i++) {
+            chunkLengths[i] = Math.min(chunk, samples.length - i * chunk);
+            System.arraycopy(samples, i * chunk, chunks[i], 0, chunkLengths[i]);
+        }
+    }
+
+    @Benchmark
+    public PeakPyramid pyramid() {
+        PeakPyramid peaks = new PeakPyramid(Waveform.COMPLETE_BUCKET_FRAMES, channels);
+        for (int i = 0; i < chunks.length; i++) {
+            peaks.accept(chunks[i], chunkLengths[i]);
+        }
+        peaks.finish();
+        return peaks;
+    }
+
+    @Benchmark
+    public Waveform waveform() throws IOException {
+        return processor.waveformForAudio(SyntheticAudio.stream(format, pcm));
+    }
+}
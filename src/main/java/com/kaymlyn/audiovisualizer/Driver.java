@@ -1,77 +1,61 @@
 package com.kaymlyn.audiovisualizer;
 
 
-import com.kaymlyn.audiovisualizer.audio.wave.AudioWaveformRenderer;
 import com.kaymlyn.audiovisualizer.audio.AudioProcessor;
-import com.kaymlyn.audiovisualizer.audio.wave.Fading;
-import com.kaymlyn.audiovisualizer.audio.wave.Waveform;
+import com.kaymlyn.audiovisualizer.audio.AudioProcessor.Canvas;
+import com.kaymlyn.audiovisualizer.audio.envelope.Envelope;
+import com.kaymlyn.audiovisualizer.audio.envelope.EnvelopeRenderer;
+import com.kaymlyn.audiovisualizer.audio.wave.Fading.Fade;
+import com.kaymlyn.audiovisualizer.audio.wave.PeakCache;
+import com.kaymlyn.audiovisualizer.batch.BatchRenderer;
+import com.kaymlyn.audiovisualizer.batch.RenderJob;
+import com.kaymlyn.audiovisualizer.batch.RenderJob.Variant;
 
-import javax.sound.sampled.AudioFormat;
-import javax.sound.sampled.AudioInputStream;
-import javax.sound.sampled.AudioSystem;
 import java.awt.Color;
-import java.awt.Font;
 import java.awt.Rectangle;
-import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
+import java.nio.file.Path;
+import java.util.List;
 
 public class Driver {
 
+    //renders the bundled samples, or hands the arguments to the batch renderer when there are any
     public static void main(String[] args) throws Exception {
+        if (args.length > 0) {
+            BatchRenderer.main(args);
+            return;
+        }
 
         String rootPath = "src/main/resources/";
         String fileName = "short";
+        PeakCache cache = new PeakCache(Path.of(rootPath, "cache"), BatchRenderer.DEFAULT_CACHE_BYTES);
 
-        AudioProcessor waveformRenderer = new AudioProcessor(
-                new Rectangle(600, 200),
-                new Color(20, 20, 20),
-                new Color(0, 0, 255),
-                new Color(71, 4, 2))
-                .withInfo(new Font("serif", Font.PLAIN, 12),
-                        Color.white,
-                        Color.blue,
-                        "File: " + fileName + ".wav");
-        Waveform waveform = waveformRenderer.waveformForAudio(AudioSystem.getAudioInputStream(new File(rootPath + fileName + ".wav")));
-
-        waveform.generate().renderToFile(new File(rootPath + "image/" + fileName + ".png"));
+        new BatchRenderer(Path.of(rootPath, "image"), BatchRenderer.DEFAULT_SPECS)
+                .withCache(cache)
+                .render(List.of(Path.of(rootPath, fileName + ".wav")));
 
-        waveform.generate()
-                .withFade(new Fading.Fade(1, 1, 1))
-                .renderToFile(new File(rootPath + "image/" + fileName + "2.png"));
-
-        waveformRenderer = new AudioProcessor(
-                new Rectangle(2000, 200),
-                new Color(20, 20, 20),
-                new Color(0, 0, 255),
-                new Color(3, 3, 3))
-                .withInfo(new Font("serif", Font.PLAIN, 12),
-                        Color.white,
-                        Color.blue,
-                        "File: " + fileName + ".wav");
-
-        waveformRenderer.waveformForAudio(AudioSystem.getAudioInputStream(new File(rootPath + fileName + ".wav")))
-                .generate()
-                .withFade(new AudioWaveformRenderer.Fade(.025, .035, .015))
-                .renderToFile(new File(rootPath + "image/" + fileName + "3.gif"));
-
-        byte[] mp3;
-        AudioFormat mp3Format = new AudioFormat(44100.0F, 16, 2, true, false);
-        try (FileInputStream fileInputStream = new FileInputStream(rootPath + "Jim_Yosef-Firefly.mp3")) {
-            mp3 = fileInputStream.readAllBytes();
-        }
-
-        AudioProcessor audioProcessor = new AudioProcessor(
+        Canvas canvas = new Canvas(
                 new Rectangle(600, 300),
                 new Color(20, 20, 20),
                 new Color(0, 0, 255),
                 new Color(71, 4, 2));
-
-        audioProcessor.waveformForAudio(new AudioInputStream(new ByteArrayInputStream(mp3), mp3Format, (mp3.length / 2)))
-                .generate()
-                .withFade(new AudioWaveformRenderer.Fade(1, 1, 1))
-                .renderToFile(new File(rootPath + "image/Firefly.png"), 6300);
-
-//        waveformRenderer.powerSeriesForAudio(new AudioInputStream(new ByteArrayInputStream(mp3), mp3Format, (mp3.length / 2))).generate();
+        Canvas overview = new Canvas(new Rectangle(2000, 200), canvas.globalBackground(), canvas.initialColor(),
+                canvas.shift());
+
+        //decoded to PCM frame by frame while the waveform is built, once for both images
+        File mp3 = new File(rootPath + "Jim_Yosef-Firefly.mp3");
+        new RenderJob(mp3)
+                .withCache(cache)
+                .add(new Variant(canvas, null, new Fade(1, 1, 1), 60, 6300,
+                        new File(rootPath + "image/Firefly.png")))
+                .add(new Variant(overview, null, new Fade(0, 0, 0), new File(rootPath + "image/Firefly-overview.png")))
+                .render();
+
+        //peak and RMS of each channel in a lane of its own
+        Envelope envelope = new AudioProcessor(canvas).envelopeForAudio(new File(rootPath + fileName + ".wav"), 256, false);
+        new EnvelopeRenderer(envelope, canvas, null)
+                .renderToFile(new File(rootPath + "image/" + fileName + "-envelope.png"));
+
+//        new AudioProcessor(canvas).powerSeriesForAudio(mp3).generate();
     }
 }
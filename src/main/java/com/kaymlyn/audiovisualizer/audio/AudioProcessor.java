@@ -1,25 +1,49 @@
 package com.kaymlyn.audiovisualizer.audio;
 
+import com.kaymlyn.audiovisualizer.audio.decode.AudioDecoders;
+import com.kaymlyn.audiovisualizer.audio.decode.ContainerFormat;
+import com.kaymlyn.audiovisualizer.audio.decode.SeekablePcm;
+import com.kaymlyn.audiovisualizer.audio.envelope.Envelope;
+import com.kaymlyn.audiovisualizer.audio.envelope.EnvelopeExtractor;
 import com.kaymlyn.audiovisualizer.audio.power.PowerSeries;
+import com.kaymlyn.audiovisualizer.audio.power.Stft;
+import com.kaymlyn.audiovisualizer.audio.wave.PeakCache;
+import com.kaymlyn.audiovisualizer.audio.wave.PeakPyramid;
 import com.kaymlyn.audiovisualizer.audio.wave.Waveform;
+import com.kaymlyn.audiovisualizer.metrics.DecodeEvent;
+import com.kaymlyn.audiovisualizer.metrics.EnvelopeEvent;
 
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.UnsupportedAudioFileException;
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.Rectangle;
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 
 /**
  * Translate AudioData into a waveform.
  */
 public class AudioProcessor {
+    //number of frames pulled from the stream per chunk when streaming audio.
+    public static final int CHUNK_FRAMES = 8192;
+
     public final Canvas canvas;
     public InfoBlock info;
+    public PeakCache cache;
 
     public record InfoBlock(Font infoFont, Color infoInsetColor, Color infoTextColor, String info) { }
     public record Canvas(Rectangle imageBounds, Color globalBackground, Color initialColor, Color shift) { }
 
+    //receives decoded samples chunk by chunk. Only the first length entries of samples are valid, and the array may be
+    //reused once accept returns.
+    @FunctionalInterface
+    public interface SampleConsumer {
+        void accept(int[] samples, int length);
+    }
+
     public AudioProcessor(Rectangle imageBounds, Color backgroundColor, Color initialColor, Color colorShift) {
         this(new Canvas(imageBounds,backgroundColor,initialColor,colorShift));
     }
@@ -37,54 +61,225 @@ public class AudioProcessor {
         return this;
     }
 
-    public Waveform waveformForAudio(AudioInputStream audioInputStream) throws IOException {
+    public AudioProcessor withCache(PeakCache cache) {
+        this.cache = cache;
+        return this;
+    }
 
-        return new Waveform(this, audioInputStream,);
+    public Waveform waveformForAudio(File audioFile) throws IOException, UnsupportedAudioFileException {
+        return waveformForAudio(audioFile, false);
     }
 
-    public Waveform waveformForAudio(AudioInputStream audioInputStream, boolean compressToCanvas) throws IOException {
-        return new Waveform(this, audioInputStream, compressToCanvas);
+    //Builds the waveform of an audio file, consulting the peak cache first when one is configured. The decoder is picked
+    //from the file's container and decodes while the waveform streams the audio; opening it only parses the header,
+    //which is enough to build the cache key, so a hit skips decoding entirely.
+    public Waveform waveformForAudio(File audioFile, boolean compressToCanvas) throws IOException, UnsupportedAudioFileException {
+        AudioInputStream audioInputStream = AudioDecoders.open(audioFile);
+        return waveformForAudio(audioFile, audioInputStream,
+                Waveform.bucketFramesFor(canvas, audioInputStream.getFrameLength(), !compressToCanvas));
     }
 
-    //translates data from byte input into an array of integers based on the audio format. This is the magic.
-    //If you wrote this please reach out with where you published it, so I can give proper credit.
-    public int[] decodeAudio(AudioFormat format, byte[] audioBytes) {
+    //Builds the waveform of an audio file that will only be drawn at framesPerColumn frames per column or more, with
+    //buckets as coarse as that zoom allows, see Waveform.bucketFramesForZoom. Consults the peak cache like
+    //waveformForAudio.
+    public Waveform waveformForZoom(File audioFile, double framesPerColumn) throws IOException, UnsupportedAudioFileException {
+        return waveformForAudio(audioFile, AudioDecoders.open(audioFile), Waveform.bucketFramesForZoom(framesPerColumn));
+    }
+
+    private Waveform waveformForAudio(File audioFile, AudioInputStream audioInputStream, int bucketFrames)
+            throws IOException {
+        if (cache == null) {
+            return new Waveform(this, audioInputStream, bucketFrames);
+        }
+
+        PeakPyramid peaks;
+        byte[] key;
+        try {
+            key = PeakCache.key(audioFile.toPath(), audioInputStream.getFormat(), bucketFrames);
+            peaks = cache.read(key);
+        } catch (IOException | RuntimeException e) {
+            audioInputStream.close();
+            throw e;
+        }
+        if (peaks != null) {
+            audioInputStream.close();
+            return new Waveform(this, audioInputStream.getFormat(), peaks);
+        }
+        Waveform waveform = new Waveform(this, audioInputStream, bucketFrames);
+        cache.write(key, waveform.peaks());
+        return waveform;
+    }
 
-        int[] audioData = null;
-        if (format.getSampleSizeInBits() == 16) {
-            int nlengthInSamples = audioBytes.length / 2;
-            audioData = new int[nlengthInSamples];
-            if (format.isBigEndian()) {
-                for (int i = 0; i < nlengthInSamples; i++) {
-                    /* First byte is MSB (high order) */
-                    int MSB = audioBytes[2 * i];
-                    /* Second byte is LSB (low order) */
-                    int LSB = audioBytes[2 * i + 1];
-                    audioData[i] = MSB << 8 | (255 & LSB);
-                }
-            } else {
-                for (int i = 0; i < nlengthInSamples; i++) {
-                    /* First byte is LSB (low order) */
-                    int LSB = audioBytes[2 * i];
-                    /* Second byte is MSB (high order) */
-                    int MSB = audioBytes[2 * i + 1];
-                    audioData[i] = MSB << 8 | (255 & LSB);
-                }
+    public Waveform waveformForAudio(AudioInputStream audioInputStream) throws IOException {
+        return new Waveform(this, audioInputStream);
+    }
+
+    public Waveform waveformForAudio(AudioInputStream audioInputStream, boolean compressToCanvas) throws IOException {
+        return new Waveform(this, audioInputStream, !compressToCanvas);
+    }
+
+    /**
+     * Builds the waveform of seconds of audio starting at startSeconds, one bucket per canvas column, ready to be
+     * rendered whole. Uncompressed WAVE, AIFF and AU files are memory mapped and only the window is decoded, however
+     * deep into the file it lies; other files are decoded from the start up to the end of the window.
+     */
+    public Waveform waveformForWindow(File audioFile, double startSeconds, double seconds)
+            throws IOException, UnsupportedAudioFileException {
+        if (startSeconds < 0 || seconds <= 0) {
+            throw new IllegalArgumentException("A window needs a start of at least 0 and a positive length.");
+        }
+        try (SeekablePcm pcm = openSeekable(audioFile)) {
+            if (pcm != null) {
+                long firstFrame = pcm.frameAt(startSeconds);
+                long frames = pcm.frameAt(startSeconds + seconds) - firstFrame;
+                PeakPyramid peaks = new PeakPyramid(Waveform.bucketFramesFor(canvas, frames, false), pcm.format().getChannels());
+                pcm.stream(firstFrame, frames, peaks);
+                return new Waveform(this, pcm.format(), peaks);
             }
-        } else if (format.getSampleSizeInBits() == 8) {
-            int nlengthInSamples = audioBytes.length;
-            audioData = new int[nlengthInSamples];
-            if (format.getEncoding().equals(AudioFormat.Encoding.PCM_SIGNED)) {
-                for (int i = 0; i < audioBytes.length; i++) {
-                    audioData[i] = audioBytes[i];
-                }
-            } else {
-                for (int i = 0; i < audioBytes.length; i++) {
-                    audioData[i] = audioBytes[i] - 128;
-                }
+        }
+
+        AudioInputStream audioInputStream = AudioDecoders.open(audioFile);
+        AudioFormat format = audioInputStream.getFormat();
+        long firstFrame = (long) (startSeconds * format.getFrameRate());
+        long frames = (long) ((startSeconds + seconds) * format.getFrameRate()) - firstFrame;
+        try {
+            //compressed audio has to be decoded to find where the window starts; skip may stop short of it before the
+            //end of the stream, skipNBytes keeps going
+            audioInputStream.skipNBytes(firstFrame * format.getFrameSize());
+        } catch (EOFException e) {
+            //the window starts past the end of the audio
+            frames = 0;
+        } catch (IOException | RuntimeException e) {
+            audioInputStream.close();
+            throw e;
+        }
+        return waveformForAudio(new AudioInputStream(audioInputStream, format, frames), true);
+    }
+
+    //null when the file is not uncompressed PCM, e.g. a mu-law WAVE file, which is left to the decoders
+    private static SeekablePcm openSeekable(File audioFile) throws IOException {
+        if (!SeekablePcm.supports(ContainerFormat.of(audioFile.toPath()))) {
+            return null;
+        }
+        try {
+            return SeekablePcm.open(audioFile.toPath());
+        } catch (UnsupportedAudioFileException e) {
+            return null;
+        }
+    }
+
+    public Waveform waveformForSamples(SampleStore store, boolean compressToCanvas) {
+        return new Waveform(this, store, !compressToCanvas);
+    }
+
+    //Peak, RMS and, when kWeighted, loudness of every channel per bucketFrames frames, built in one pass while the file
+    //is decoded
+    public Envelope envelopeForAudio(File audioFile, int bucketFrames, boolean kWeighted)
+            throws IOException, UnsupportedAudioFileException {
+        try (AudioInputStream audioInputStream = AudioDecoders.open(audioFile)) {
+            AudioFormat format = audioInputStream.getFormat();
+            EnvelopeExtractor extractor = new EnvelopeExtractor(format, bucketFrames, kWeighted);
+            EnvelopeEvent event = new EnvelopeEvent(format.getChannels(), bucketFrames, kWeighted);
+            event.start();
+            long bytesRead = streamAudio(audioInputStream, extractor);
+            Envelope envelope = extractor.finish();
+            event.finish(envelope.frameCount(), bytesRead);
+            return envelope;
+        }
+    }
+
+    //the same from samples that were already decoded, summarized in parallel. The store stays open.
+    public Envelope envelopeForSamples(SampleStore store, int bucketFrames, boolean kWeighted) {
+        return EnvelopeExtractor.extract(store, bucketFrames, kWeighted);
+    }
+
+    public PowerSeries powerSeriesForAudio(File audioFile) throws IOException, UnsupportedAudioFileException {
+        return powerSeriesForAudio(AudioDecoders.open(audioFile));
+    }
+
+    public PowerSeries powerSeriesForAudio(AudioInputStream audioInputStream) throws IOException {
+        return new PowerSeries(this, audioInputStream);
+    }
+
+    public PowerSeries powerSeriesForAudio(AudioInputStream audioInputStream, Stft stft) throws IOException {
+        return new PowerSeries(this, audioInputStream, stft);
+    }
+
+    public PowerSeries powerSeriesForSamples(SampleStore store, Stft stft) {
+        return new PowerSeries(this, store, stft);
+    }
+
+    //Decodes the whole stream into store, e.g. SampleStore.allocate or SampleStore.map for the stream's format, so that
+    //several consumers can read the samples without decoding them again. The stream is closed, the store is returned
+    //open and belongs to the caller; it is closed when decoding fails.
+    public SampleStore storeAudio(AudioInputStream audioInputStream, SampleStore store) throws IOException {
+        try (audioInputStream) {
+            streamAudio(audioInputStream, store);
+        } catch (IOException | RuntimeException e) {
+            store.close();
+            throw e;
+        }
+        return store;
+    }
+
+    //Reads the stream in fixed size chunks and decodes each chunk before handing it to the consumer, so only a single
+    //chunk is ever held in memory. Short reads are topped up until the chunk is full or the stream ends.
+    //Returns the number of bytes read.
+    public long streamAudio(AudioInputStream audioInputStream, SampleConsumer consumer) throws IOException {
+        AudioFormat format = audioInputStream.getFormat();
+        int frameSize = format.getFrameSize();
+        if (frameSize <= 0) {
+            throw new IOException("Unable to stream audio without a fixed frame size: " + format);
+        }
+        if (!PcmDecoder.supports(format)) {
+            throw new IOException("Unsupported audio format: " + format);
+        }
+
+        String formatName = format.toString();
+        byte[] chunk = new byte[CHUNK_FRAMES * frameSize];
+        int[] samples = new int[CHUNK_FRAMES * format.getChannels()];
+        long totalRead = 0;
+        int filled = 0;
+        int read;
+        while ((read = audioInputStream.read(chunk, filled, chunk.length - filled)) != -1) {
+            filled += read;
+            totalRead += read;
+            if (filled == chunk.length) {
+                consumer.accept(samples, decodeChunk(format, formatName, chunk, filled, samples));
+                filled = 0;
             }
         }
+
+        //trailing partial chunk, dropping any incomplete frame at the very end of the stream
+        filled -= filled % frameSize;
+        if (filled > 0) {
+            consumer.accept(samples, decodeChunk(format, formatName, chunk, filled, samples));
+        }
+        return totalRead;
+    }
+
+    private int decodeChunk(AudioFormat format, String formatName, byte[] chunk, int length, int[] samples) {
+        DecodeEvent event = new DecodeEvent(formatName);
+        event.start();
+        int decoded = decodeAudio(format, chunk, length, samples);
+        event.finish(decoded, length);
+        return decoded;
+    }
+
+    //translates data from byte input into an array of integers based on the audio format.
+    //Returns null when the format is not a PCM format the decoder understands.
+    public int[] decodeAudio(AudioFormat format, byte[] audioBytes) {
+        if (!PcmDecoder.supports(format)) {
+            return null;
+        }
+        int[] audioData = new int[PcmDecoder.sampleCount(format, audioBytes.length)];
+        PcmDecoder.decode(format, audioBytes, 0, audioBytes.length, audioData);
         return audioData;
     }
 
+    //decodes the first length bytes into the caller's buffer without allocating, returning the number of samples written.
+    public int decodeAudio(AudioFormat format, byte[] audioBytes, int length, int[] audioData) {
+        return PcmDecoder.decode(format, audioBytes, 0, length, audioData);
+    }
+
 }
@@ -0,0 +1,10 @@
+package com.kaymlyn.audiovisualizer.audio;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+//receives rendered frames one at a time and in order. The frame may be discarded once accept returns.
+@FunctionalInterface
+public interface FrameSink {
+    void accept(int frameIndex, BufferedImage frame) throws IOException;
+}
@@ -1,8 +1,8 @@
 package com.kaymlyn.audiovisualizer.audio;
 
-import java.util.List;
-
 public interface Generator <T extends Renderer> {
     T generate();
-    List<? extends Number> balance(int[] data);
+
+    //scales the first length samples of data into target, allocating a new array when target is null or too short.
+    double[] balance(int[] data, int length, double[] target);
 }
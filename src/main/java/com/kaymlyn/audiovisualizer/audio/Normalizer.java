@@ -0,0 +1,302 @@
+package com.kaymlyn.audiovisualizer.audio;
+
+import com.kaymlyn.audiovisualizer.metrics.NormalizeEvent;
+
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Single pass normalization of decoded samples. Peaks are found with one scan instead of a sort, and large inputs are
+ * split across the common fork-join pool. Nothing is boxed; scaled values are written into caller supplied arrays.
+ * Samples held in a SampleStore are read where they are, off the heap.
+ */
+public final class Normalizer {
+
+    //inputs shorter than this are handled on the calling thread, splitting them costs more than it saves
+    static final int PARALLEL_THRESHOLD = 1 << 16;
+
+    //percentile peaks are found through a histogram of absolute values with 8 significant bits per bin, which bounds
+    //the error to under 1% and keeps the histogram small enough to merge cheaply
+    private static final int MANTISSA_BITS = 8;
+    private static final int HISTOGRAM_BINS = (32 - MANTISSA_BITS) * (1 << (MANTISSA_BITS - 1)) + (1 << MANTISSA_BITS);
+
+    private Normalizer() {
+    }
+
+    //largest absolute value among the first length samples
+    public static int peak(int[] data, int length) {
+        int max = 0;
+        for (int peak : channelPeaks(data, length, 1)) {
+            max = Math.max(max, peak);
+        }
+        return max;
+    }
+
+    //largest absolute value of every channel of interleaved samples
+    public static int[] channelPeaks(int[] data, int length, int channels) {
+        NormalizeEvent event = new NormalizeEvent("peak");
+        event.start();
+        int[] peaks = new PeakTask(data, 0, length - length % channels, channels).invoke();
+        event.finish(length, (long) length * Integer.BYTES);
+        return peaks;
+    }
+
+    public static int peak(SampleStore store) {
+        int max = 0;
+        for (int peak : channelPeaks(store)) {
+            max = Math.max(max, peak);
+        }
+        return max;
+    }
+
+    public static int[] channelPeaks(SampleStore store) {
+        NormalizeEvent event = new NormalizeEvent("peak");
+        event.start();
+        long length = store.frames() * store.channels();
+        int[] peaks = new StorePeakTask(store, 0, length).invoke();
+        event.finish(length, length * store.width().bytes());
+        return peaks;
+    }
+
+    /**
+     * The absolute value that percentile (0 to 1) of the samples do not exceed, which makes normalization robust
+     * against a handful of clipped or spiking samples. A percentile of 1 is the true peak.
+     */
+    public static int percentilePeak(int[] data, int length, double percentile) {
+        if (percentile >= 1) {
+            return peak(data, length);
+        }
+        NormalizeEvent event = new NormalizeEvent("histogram");
+        event.start();
+        long[] histogram = new HistogramTask(data, 0, length).invoke();
+        event.finish(length, (long) length * Integer.BYTES);
+        return percentile(histogram, length, percentile);
+    }
+
+    private static int percentile(long[] histogram, long length, double percentile) {
+        long threshold = (long) Math.ceil(length * Math.max(0, percentile));
+        long seen = 0;
+        for (int bin = 0; bin < histogram.length; bin++) {
+            seen += histogram[bin];
+            if (seen >= threshold && seen > 0) {
+                return upperBound(bin);
+            }
+        }
+        return 0;
+    }
+
+    public static int percentilePeak(SampleStore store, double percentile) {
+        if (percentile >= 1) {
+            return peak(store);
+        }
+        NormalizeEvent event = new NormalizeEvent("histogram");
+        event.start();
+        long length = store.size();
+        long[] histogram = new StoreHistogramTask(store, 0, length).invoke();
+        event.finish(length, length * store.width().bytes());
+        return percentile(histogram, length, percentile);
+    }
+
+    //scales the first length samples so that peak maps to range, writing them into target
+    public static double[] scale(int[] data, int length, int peak, double range, double[] target) {
+        if (target == null || target.length < length) {
+            target = new double[length];
+        }
+        double factor = peak == 0 ? 0 : range / peak;
+        NormalizeEvent event = new NormalizeEvent("scale");
+        event.start();
+        new ScaleTask(data, target, 0, length, factor).invoke();
+        event.finish(length, (long) length * Integer.BYTES);
+        return target;
+    }
+
+    private static int bin(int sample) {
+        //Math.abs(Integer.MIN_VALUE) stays negative, clamp it to the largest magnitude instead
+        int abs = sample == Integer.MIN_VALUE ? Integer.MAX_VALUE : Math.abs(sample);
+        if (abs < (1 << MANTISSA_BITS)) {
+            return abs;
+        }
+        int exponent = 32 - Integer.numberOfLeadingZeros(abs) - MANTISSA_BITS;
+        int mantissa = (abs >>> exponent) & ((1 << MANTISSA_BITS) - 1);
+        return exponent * (1 << (MANTISSA_BITS - 1)) + mantissa;
+    }
+
+    private static int upperBound(int bin) {
+        if (bin < (1 << MANTISSA_BITS)) {
+            return bin;
+        }
+        int half = 1 << (MANTISSA_BITS - 1);
+        int exponent = (bin - half) / half;
+        int mantissa = bin - exponent * half;
+        return (int) Math.min(Integer.MAX_VALUE, ((long) (mantissa + 1) << exponent) - 1);
+    }
+
+    private static class PeakTask extends RecursiveTask<int[]> {
+        private final int[] data;
+        private final int from;
+        private final int to;
+        private final int channels;
+
+        private PeakTask(int[] data, int from, int to, int channels) {
+            this.data = data;
+            this.from = from;
+            this.to = to;
+            this.channels = channels;
+        }
+
+        @Override
+        protected int[] compute() {
+            if (to - from <= PARALLEL_THRESHOLD) {
+                int[] peaks = new int[channels];
+                for (int i = from; i < to; i++) {
+                    int abs = data[i] == Integer.MIN_VALUE ? Integer.MAX_VALUE : Math.abs(data[i]);
+                    int channel = (i - from) % channels;
+                    peaks[channel] = Math.max(peaks[channel], abs);
+                }
+                return peaks;
+            }
+
+            //split on a frame boundary so every half starts at channel 0
+            int middle = from + ((to - from) / 2 / channels) * channels;
+            PeakTask left = new PeakTask(data, from, middle, channels);
+            left.fork();
+            int[] peaks = new PeakTask(data, middle, to, channels).compute();
+            int[] leftPeaks = left.join();
+            for (int channel = 0; channel < channels; channel++) {
+                peaks[channel] = Math.max(peaks[channel], leftPeaks[channel]);
+            }
+            return peaks;
+        }
+    }
+
+    private static class HistogramTask extends RecursiveTask<long[]> {
+        private final int[] data;
+        private final int from;
+        private final int to;
+
+        private HistogramTask(int[] data, int from, int to) {
+            this.data = data;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected long[] compute() {
+            if (to - from <= PARALLEL_THRESHOLD) {
+                long[] histogram = new long[HISTOGRAM_BINS];
+                for (int i = from; i < to; i++) {
+                    histogram[bin(data[i])]++;
+                }
+                return histogram;
+            }
+
+            int middle = (from + to) >>> 1;
+            HistogramTask left = new HistogramTask(data, from, middle);
+            left.fork();
+            long[] histogram = new HistogramTask(data, middle, to).compute();
+            long[] leftHistogram = left.join();
+            for (int bin = 0; bin < histogram.length; bin++) {
+                histogram[bin] += leftHistogram[bin];
+            }
+            return histogram;
+        }
+    }
+
+    private static class StorePeakTask extends RecursiveTask<int[]> {
+        private final SampleStore store;
+        private final long from;
+        private final long to;
+
+        private StorePeakTask(SampleStore store, long from, long to) {
+            this.store = store;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected int[] compute() {
+            int channels = store.channels();
+            if (to - from <= PARALLEL_THRESHOLD) {
+                int[] peaks = new int[channels];
+                for (long i = from; i < to; i++) {
+                    int sample = store.get(i);
+                    int abs = sample == Integer.MIN_VALUE ? Integer.MAX_VALUE : Math.abs(sample);
+                    int channel = (int) ((i - from) % channels);
+                    peaks[channel] = Math.max(peaks[channel], abs);
+                }
+                return peaks;
+            }
+
+            long middle = from + ((to - from) / 2 / channels) * channels;
+            StorePeakTask left = new StorePeakTask(store, from, middle);
+            left.fork();
+            int[] peaks = new StorePeakTask(store, middle, to).compute();
+            int[] leftPeaks = left.join();
+            for (int channel = 0; channel < channels; channel++) {
+                peaks[channel] = Math.max(peaks[channel], leftPeaks[channel]);
+            }
+            return peaks;
+        }
+    }
+
+    private static class StoreHistogramTask extends RecursiveTask<long[]> {
+        private final SampleStore store;
+        private final long from;
+        private final long to;
+
+        private StoreHistogramTask(SampleStore store, long from, long to) {
+            this.store = store;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected long[] compute() {
+            if (to - from <= PARALLEL_THRESHOLD) {
+                long[] histogram = new long[HISTOGRAM_BINS];
+                for (long i = from; i < to; i++) {
+                    histogram[bin(store.get(i))]++;
+                }
+                return histogram;
+            }
+
+            long middle = (from + to) >>> 1;
+            StoreHistogramTask left = new StoreHistogramTask(store, from, middle);
+            left.fork();
+            long[] histogram = new StoreHistogramTask(store, middle, to).compute();
+            long[] leftHistogram = left.join();
+            for (int bin = 0; bin < histogram.length; bin++) {
+                histogram[bin] += leftHistogram[bin];
+            }
+            return histogram;
+        }
+    }
+
+    private static class ScaleTask extends RecursiveAction {
+        private final int[] data;
+        private final double[] target;
+        private final int from;
+        private final int to;
+        private final double factor;
+
+        private ScaleTask(int[] data, double[] target, int from, int to, double factor) {
+            this.data = data;
+            this.target = target;
+            this.from = from;
+            this.to = to;
+            this.factor = factor;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    target[i] = data[i] * factor;
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new ScaleTask(data, target, from, middle, factor), new ScaleTask(data, target, middle, to, factor));
+        }
+    }
+}
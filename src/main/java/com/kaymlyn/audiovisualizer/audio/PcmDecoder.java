@@ -0,0 +1,142 @@
+package com.kaymlyn.audiovisualizer.audio;
+
+import javax.sound.sampled.AudioFormat;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Bulk PCM decoding into caller supplied buffers. Samples are read through byte array view handles, which the JIT
+ * turns into plain (and vectorizable) loads, instead of being assembled byte by byte.
+ */
+public final class PcmDecoder {
+
+    private static final VarHandle SHORT_LE = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle SHORT_BE = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle INT_LE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT_BE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle FLOAT_LE = MethodHandles.byteArrayViewVarHandle(float[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle FLOAT_BE = MethodHandles.byteArrayViewVarHandle(float[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle DOUBLE_LE = MethodHandles.byteArrayViewVarHandle(double[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle DOUBLE_BE = MethodHandles.byteArrayViewVarHandle(double[].class, ByteOrder.BIG_ENDIAN);
+
+    //floating point samples are brought into the 24 bit integer range, which keeps their full float precision
+    private static final double FLOAT_SCALE = 0x7FFFFF;
+
+    private PcmDecoder() {
+    }
+
+    public static boolean supports(AudioFormat format) {
+        AudioFormat.Encoding encoding = format.getEncoding();
+        int bits = format.getSampleSizeInBits();
+        if (AudioFormat.Encoding.PCM_SIGNED.equals(encoding) || AudioFormat.Encoding.PCM_UNSIGNED.equals(encoding)) {
+            return bits == 8 || bits == 16 || bits == 24 || bits == 32;
+        }
+        if (AudioFormat.Encoding.PCM_FLOAT.equals(encoding)) {
+            return bits == 32 || bits == 64;
+        }
+        return false;
+    }
+
+    //magnitude of a full scale sample as decoded from the given format
+    public static double fullScale(AudioFormat format) {
+        if (AudioFormat.Encoding.PCM_FLOAT.equals(format.getEncoding())) {
+            return FLOAT_SCALE;
+        }
+        return 1L << (format.getSampleSizeInBits() - 1);
+    }
+
+    //number of whole samples held in length bytes of the given format
+    public static int sampleCount(AudioFormat format, int length) {
+        return length / (format.getSampleSizeInBits() / 8);
+    }
+
+    /**
+     * Decodes length bytes of source starting at offset into target, which must have room for
+     * {@link #sampleCount(AudioFormat, int)} samples.
+     *
+     * @return the number of samples written to target.
+     */
+    public static int decode(AudioFormat format, byte[] source, int offset, int length, int[] target) {
+        if (!supports(format)) {
+            throw new IllegalArgumentException("Unsupported audio format: " + format);
+        }
+        int count = sampleCount(format, length);
+        if (target.length < count) {
+            throw new IllegalArgumentException("Target buffer holds " + target.length + " samples, " + count + " needed.");
+        }
+
+        boolean bigEndian = format.isBigEndian();
+        boolean unsigned = AudioFormat.Encoding.PCM_UNSIGNED.equals(format.getEncoding());
+        if (AudioFormat.Encoding.PCM_FLOAT.equals(format.getEncoding())) {
+            if (format.getSampleSizeInBits() == 32) {
+                decodeFloat(source, offset, count, target, bigEndian ? FLOAT_BE : FLOAT_LE);
+            } else {
+                decodeDouble(source, offset, count, target, bigEndian ? DOUBLE_BE : DOUBLE_LE);
+            }
+            return count;
+        }
+
+        switch (format.getSampleSizeInBits()) {
+            case 8 -> decode8(source, offset, count, target, unsigned);
+            case 16 -> decode16(source, offset, count, target, bigEndian ? SHORT_BE : SHORT_LE, unsigned);
+            case 24 -> decode24(source, offset, count, target, bigEndian, unsigned);
+            default -> decode32(source, offset, count, target, bigEndian ? INT_BE : INT_LE, unsigned);
+        }
+        return count;
+    }
+
+    private static void decode8(byte[] source, int offset, int count, int[] target, boolean unsigned) {
+        if (unsigned) {
+            for (int i = 0; i < count; i++) {
+                target[i] = (source[offset + i] & 0xFF) - 0x80;
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                target[i] = source[offset + i];
+            }
+        }
+    }
+
+    private static void decode16(byte[] source, int offset, int count, int[] target, VarHandle view, boolean unsigned) {
+        if (unsigned) {
+            for (int i = 0; i < count; i++) {
+                target[i] = ((short) view.get(source, offset + 2 * i) & 0xFFFF) - 0x8000;
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                target[i] = (short) view.get(source, offset + 2 * i);
+            }
+        }
+    }
+
+    private static void decode24(byte[] source, int offset, int count, int[] target, boolean bigEndian, boolean unsigned) {
+        //the most significant byte keeps its sign so the sample is sign extended for free
+        int msb = bigEndian ? 0 : 2;
+        int lsb = bigEndian ? 2 : 0;
+        int bias = unsigned ? 0x800000 : 0;
+        for (int i = 0, b = offset; i < count; i++, b += 3) {
+            int sample = source[b + msb] << 16 | (source[b + 1] & 255) << 8 | (source[b + lsb] & 255);
+            target[i] = unsigned ? (sample & 0xFFFFFF) - bias : sample;
+        }
+    }
+
+    private static void decode32(byte[] source, int offset, int count, int[] target, VarHandle view, boolean unsigned) {
+        int bias = unsigned ? Integer.MIN_VALUE : 0;
+        for (int i = 0; i < count; i++) {
+            target[i] = (int) view.get(source, offset + 4 * i) ^ bias;
+        }
+    }
+
+    private static void decodeFloat(byte[] source, int offset, int count, int[] target, VarHandle view) {
+        for (int i = 0; i < count; i++) {
+            target[i] = (int) (Math.clamp((float) view.get(source, offset + 4 * i), -1f, 1f) * FLOAT_SCALE);
+        }
+    }
+
+    private static void decodeDouble(byte[] source, int offset, int count, int[] target, VarHandle view) {
+        for (int i = 0; i < count; i++) {
+            target[i] = (int) (Math.clamp((double) view.get(source, offset + 8 * i), -1d, 1d) * FLOAT_SCALE);
+        }
+    }
+}
@@ -8,4 +8,9 @@ public interface Renderer {
 
     BufferedImage renderToImage(int frameIndex);
     void renderToFile(File imageFile) throws IOException;
+
+    //true when frames build on the previously rendered one, which only pays off when they are rendered in order
+    default boolean keepsState() {
+        return false;
+    }
 }
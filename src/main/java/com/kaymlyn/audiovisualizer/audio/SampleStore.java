@@ -0,0 +1,206 @@
+package com.kaymlyn.audiovisualizer.audio;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Decoded, interleaved samples kept off the heap in MemorySegments of a shared Arena, so long recordings cost the
+ * garbage collector nothing. Samples of sources with at most 16 bits are stored as shorts, everything else as ints.
+ * <p>
+ * The store grows in fixed size chunks, nothing is copied when it grows. A mapped store backs its chunks with a file
+ * instead of memory, leaving paging to the operating system. Samples are appended through
+ * {@link #accept(int[], int)}; once written they may be read from any number of threads. Closing the store frees or
+ * unmaps every chunk, reading it afterwards fails.
+ */
+public final class SampleStore implements AudioProcessor.SampleConsumer, AutoCloseable {
+
+    //samples per chunk
+    private static final int CHUNK_SHIFT = 20;
+    private static final int CHUNK_SAMPLES = 1 << CHUNK_SHIFT;
+    private static final long CHUNK_MASK = CHUNK_SAMPLES - 1;
+
+    private static final ValueLayout.OfShort SHORT = ValueLayout.JAVA_SHORT;
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT;
+
+    public enum Width {
+        SHORT(Short.BYTES), INT(Integer.BYTES);
+
+        private final int bytes;
+
+        Width(int bytes) {
+            this.bytes = bytes;
+        }
+
+        public int bytes() {
+            return bytes;
+        }
+
+        //the narrowest width holding every sample PcmDecoder produces for the format
+        public static Width of(AudioFormat format) {
+            boolean integer = AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding())
+                    || AudioFormat.Encoding.PCM_UNSIGNED.equals(format.getEncoding());
+            return integer && format.getSampleSizeInBits() <= 16 ? SHORT : INT;
+        }
+    }
+
+    private final Arena arena = Arena.ofShared();
+    private final AudioFormat format;
+    private final int channels;
+    private final Width width;
+    private final FileChannel file;
+    private MemorySegment[] chunks = new MemorySegment[8];
+    private int chunkCount;
+    private long size;
+
+    private SampleStore(AudioFormat format, FileChannel file) {
+        if (format.getChannels() < 1) {
+            throw new IllegalArgumentException("At least one channel is required.");
+        }
+        this.format = format;
+        this.channels = format.getChannels();
+        this.width = Width.of(format);
+        this.file = file;
+    }
+
+    //a store in memory for samples decoded from the given format
+    public static SampleStore allocate(AudioFormat format) {
+        return new SampleStore(format, null);
+    }
+
+    //a store whose samples live in the given file, which is created or truncated
+    public static SampleStore map(Path file, AudioFormat format) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new SampleStore(format, channel);
+    }
+
+    @Override
+    public void accept(int[] samples, int length) {
+        int written = 0;
+        while (written < length) {
+            int chunk = (int) (size >>> CHUNK_SHIFT);
+            if (chunk == chunkCount) {
+                addChunk();
+            }
+            MemorySegment segment = chunks[chunk];
+            int offset = (int) (size & CHUNK_MASK);
+            int count = Math.min(length - written, CHUNK_SAMPLES - offset);
+            if (width == Width.SHORT) {
+                for (int i = 0; i < count; i++) {
+                    segment.setAtIndex(SHORT, offset + i, (short) samples[written + i]);
+                }
+            } else {
+                MemorySegment.copy(samples, written, segment, INT, (long) offset * Integer.BYTES, count);
+            }
+            written += count;
+            size += count;
+        }
+    }
+
+    private void addChunk() {
+        if (chunkCount == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunkCount * 2);
+        }
+        long bytes = (long) CHUNK_SAMPLES * width.bytes();
+        if (file == null) {
+            chunks[chunkCount] = arena.allocate(bytes, width.bytes());
+        } else {
+            try {
+                chunks[chunkCount] = file.map(FileChannel.MapMode.READ_WRITE, chunkCount * bytes, bytes, arena);
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to map chunk " + chunkCount + " of the sample file.", e);
+            }
+        }
+        chunkCount++;
+    }
+
+    //format of the audio the samples were decoded from
+    public AudioFormat format() {
+        return format;
+    }
+
+    public int channels() {
+        return channels;
+    }
+
+    public Width width() {
+        return width;
+    }
+
+    //number of samples, across all channels
+    public long size() {
+        return size;
+    }
+
+    public long frames() {
+        return size / channels;
+    }
+
+    //bytes held off the heap, whole chunks
+    public long byteSize() {
+        return (long) chunkCount * CHUNK_SAMPLES * width.bytes();
+    }
+
+    public int get(long index) {
+        MemorySegment segment = chunks[(int) (index >>> CHUNK_SHIFT)];
+        long offset = index & CHUNK_MASK;
+        return width == Width.SHORT ? segment.getAtIndex(SHORT, offset) : segment.getAtIndex(INT, offset);
+    }
+
+    /**
+     * Copies length samples starting at sample from into target at offset, which is how chunked consumers such as
+     * PeakPyramid and the Stft read the store with a small reusable buffer.
+     *
+     * @return the number of samples copied, fewer than length at the end of the store.
+     */
+    public int read(long from, int[] target, int offset, int length) {
+        int count = (int) Math.max(0, Math.min(length, size - from));
+        int copied = 0;
+        while (copied < count) {
+            long index = from + copied;
+            MemorySegment segment = chunks[(int) (index >>> CHUNK_SHIFT)];
+            int start = (int) (index & CHUNK_MASK);
+            int run = Math.min(count - copied, CHUNK_SAMPLES - start);
+            if (width == Width.SHORT) {
+                for (int i = 0; i < run; i++) {
+                    target[offset + copied + i] = segment.getAtIndex(SHORT, start + i);
+                }
+            } else {
+                MemorySegment.copy(segment, INT, (long) start * Integer.BYTES, target, offset + copied, run);
+            }
+            copied += run;
+        }
+        return count;
+    }
+
+    //feeds the samples [from, to) to the consumer in pieces of at most bufferSamples, reusing one buffer
+    public void stream(long from, long to, int bufferSamples, AudioProcessor.SampleConsumer consumer) {
+        int[] buffer = new int[(int) Math.min(bufferSamples, Math.max(1, to - from))];
+        for (long position = from; position < to; ) {
+            int read = read(position, buffer, 0, (int) Math.min(buffer.length, to - position));
+            if (read == 0) {
+                return;
+            }
+            consumer.accept(buffer, read);
+            position += read;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        arena.close();
+        if (file != null) {
+            try (file) {
+                //the last chunk was mapped whole, drop what was never written
+                file.truncate(size * width.bytes());
+            }
+        }
+    }
+}
@@ -1,12 +1,11 @@
 package com.kaymlyn.audiovisualizer.audio;
 
-import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.util.List;
 
 public interface SeriesRenderer  {
-    List<BufferedImage> renderFrames(int frameIndex, int fps, int framesPerCanvas);
+    //renders frameCount frames starting at firstFrame, streaming each one to the sink instead of collecting them
+    void renderFrames(int firstFrame, int frameCount, FrameSink sink) throws IOException;
     void renderFramesToFiles(File imageDirectory) throws IOException;
 
 }
@@ -0,0 +1,116 @@
+package com.kaymlyn.audiovisualizer.audio;
+
+import java.awt.Color;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.kaymlyn.audiovisualizer.audio.AudioProcessor.Canvas;
+import static com.kaymlyn.audiovisualizer.audio.AudioProcessor.InfoBlock;
+
+/**
+ * The parts of a frame that never change between frames: the background and the info inset. The layer is rendered
+ * once per Canvas and InfoBlock, including the font metrics and text layout, and every frame starts as a copy of it.
+ */
+public final class StaticLayer {
+
+    private static final int MAX_CACHED = 64;
+    private static final Map<Key, StaticLayer> CACHE = new ConcurrentHashMap<>();
+
+    private record Key(Canvas canvas, InfoBlock info) { }
+
+    private final int width;
+    private final int height;
+    private final int[] pixels;
+    //the part of the layer covered by the info inset, empty without an InfoBlock
+    private final Rectangle inset;
+
+    private StaticLayer(Canvas canvas, InfoBlock info) {
+        width = canvas.imageBounds().width;
+        height = canvas.imageBounds().height;
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2 = image.createGraphics();
+        g2.setBackground(canvas.globalBackground());
+        g2.clearRect(0, 0, width, height);
+
+        if(info != null) {
+            FontMetrics fontMetrics = g2.getFontMetrics(info.infoFont());
+            Rectangle2D stringBounds = fontMetrics.getStringBounds(info.info(), g2);
+
+            g2.setColor(info.infoInsetColor());
+            g2.fillRect(0, height - (int) (stringBounds.getHeight()), (int) stringBounds.getWidth() + 4, height + (int) stringBounds.getHeight() + 4);
+            Rectangle text = stringBounds.getBounds();
+            text.translate(3, height - 4);
+            inset = new Rectangle(0, height - (int) (stringBounds.getHeight()), (int) stringBounds.getWidth() + 4, height)
+                    .union(text)
+                    .intersection(new Rectangle(width, height));
+            g2.setColor(Color.BLUE);
+            g2.setFont(info.infoFont());
+            g2.drawString(info.info(), 3, height - 4);
+        } else {
+            inset = new Rectangle();
+        }
+        g2.dispose();
+        pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    }
+
+    public static StaticLayer of(Canvas canvas, InfoBlock info) {
+        if (CACHE.size() > MAX_CACHED) {
+            CACHE.clear();
+        }
+        return CACHE.computeIfAbsent(new Key(canvas, info), key -> new StaticLayer(key.canvas(), key.info()));
+    }
+
+    //a new TYPE_INT_RGB frame holding a copy of the layer
+    public BufferedImage newImage() {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        copyInto(((DataBufferInt) image.getRaster().getDataBuffer()).getData());
+        return image;
+    }
+
+    public void copyInto(int[] frame) {
+        System.arraycopy(pixels, 0, frame, 0, pixels.length);
+    }
+
+    //restores just the info inset, for renderers that paint over the whole frame before the inset is shown
+    public void copyInsetInto(int[] frame) {
+        copyInto(frame, inset);
+    }
+
+    //restores the part of the layer inside region, clipped to the layer
+    public void copyInto(int[] frame, Rectangle region) {
+        int fromX = Math.max(0, region.x);
+        int toX = Math.min(width, region.x + region.width);
+        for (int y = Math.max(0, region.y); y < Math.min(height, region.y + region.height) && fromX < toX; y++) {
+            System.arraycopy(pixels, y * width + fromX, frame, y * width + fromX, toX - fromX);
+        }
+    }
+
+    //copies rows [rowFrom, rowTo) of the layer into target, row rowFrom starting at offset and each row scanline
+    //entries after the last, as when the layer is one tile of a wider image
+    public void copyRowsInto(int[] target, int offset, int scanline, int rowFrom, int rowTo) {
+        for (int y = rowFrom; y < rowTo; y++) {
+            System.arraycopy(pixels, y * width, target, offset + (y - rowFrom) * scanline, width);
+        }
+    }
+
+    //the part of the layer covered by the info inset, empty without an InfoBlock. Outside of it the layer is plain
+    //background.
+    public Rectangle inset() {
+        return new Rectangle(inset);
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+}
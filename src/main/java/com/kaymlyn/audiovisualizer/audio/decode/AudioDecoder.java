@@ -0,0 +1,31 @@
+package com.kaymlyn.audiovisualizer.audio.decode;
+
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Service provider interface of an audio decoding backend. Implementations are found through
+ * {@link java.util.ServiceLoader}, listed in META-INF/services/com.kaymlyn.audiovisualizer.audio.decode.AudioDecoder,
+ * and are tried before the built in Java Sound backend.
+ * <p>
+ * A decoder must stream: open returns as soon as the header is parsed, and audio is decoded frame by frame as the
+ * returned stream is read, so a decoded track is never held in memory as a whole.
+ */
+public interface AudioDecoder {
+
+    String name();
+
+    boolean supports(ContainerFormat container);
+
+    //the audio as a PCM stream PcmDecoder understands
+    AudioInputStream open(File file) throws IOException, UnsupportedAudioFileException;
+
+    //number of PCM frames the decoded audio will hold, NOT_SPECIFIED when it is unknown before decoding
+    default long frameLength(File file) throws IOException, UnsupportedAudioFileException {
+        try (AudioInputStream audio = open(file)) {
+            return audio.getFrameLength();
+        }
+    }
+}
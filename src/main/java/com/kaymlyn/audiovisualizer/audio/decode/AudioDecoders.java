@@ -0,0 +1,94 @@
+package com.kaymlyn.audiovisualizer.audio.decode;
+
+import com.kaymlyn.audiovisualizer.audio.PcmDecoder;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ServiceLoader;
+
+/**
+ * Picks the AudioDecoder of a file from its container: the first installed provider supporting the container wins,
+ * and Java Sound is the last resort.
+ */
+public final class AudioDecoders {
+
+    //decoded 16 bit PCM bytes assumed per byte of a compressed file of unknown length, about what 32 kbit/s mono MP3
+    //at 44.1 kHz decodes to
+    private static final int COMPRESSION_RATIO = 24;
+
+    private static final List<AudioDecoder> DECODERS = load();
+
+    private AudioDecoders() {
+    }
+
+    //the audio of the file as a PCM stream, decoded while it is read
+    public static AudioInputStream open(File file) throws IOException, UnsupportedAudioFileException {
+        return decoderFor(file).open(file);
+    }
+
+    public static long frameLength(File file) throws IOException, UnsupportedAudioFileException {
+        return decoderFor(file).frameLength(file);
+    }
+
+    //The frame length of the file, guessed when the header does not tell it: PCM is sized by its frame size, compressed
+    //audio by its bitrate and failing that by COMPRESSION_RATIO, which rather overestimates than underestimates.
+    public static long estimatedFrameLength(File file) throws IOException, UnsupportedAudioFileException {
+        AudioDecoder decoder = decoderFor(file);
+        long frames = decoder.frameLength(file);
+        if (frames != AudioSystem.NOT_SPECIFIED) {
+            return frames;
+        }
+
+        long size = Files.size(file.toPath());
+        try {
+            AudioFileFormat fileFormat = AudioSystem.getAudioFileFormat(file);
+            AudioFormat format = fileFormat.getFormat();
+            if (PcmDecoder.supports(format)) {
+                return size / Math.max(1, format.getFrameSize());
+            }
+            Object bitrate = fileFormat.getProperty("bitrate");
+            if (bitrate == null) {
+                bitrate = format.getProperty("bitrate");
+            }
+            if (bitrate instanceof Integer bitsPerSecond && bitsPerSecond > 0 && format.getSampleRate() > 0) {
+                return (long) (size * 8.0 / bitsPerSecond * format.getSampleRate());
+            }
+        } catch (UnsupportedAudioFileException e) {
+            //only a decoder plugin understands the file, which says nothing about its encoding
+        }
+        int channels;
+        try (AudioInputStream audio = decoder.open(file)) {
+            channels = Math.max(1, audio.getFormat().getChannels());
+        }
+        return size * COMPRESSION_RATIO / (2L * channels);
+    }
+
+    public static AudioDecoder decoderFor(File file) throws IOException, UnsupportedAudioFileException {
+        ContainerFormat container = ContainerFormat.of(file.toPath());
+        for (AudioDecoder decoder : DECODERS) {
+            if (decoder.supports(container)) {
+                return decoder;
+            }
+        }
+        throw new UnsupportedAudioFileException("No decoder for " + container + " audio: " + file);
+    }
+
+    public static List<AudioDecoder> installed() {
+        return DECODERS;
+    }
+
+    private static List<AudioDecoder> load() {
+        List<AudioDecoder> decoders = new ArrayList<>();
+        ServiceLoader.load(AudioDecoder.class).forEach(decoders::add);
+        decoders.add(new JavaSoundDecoder());
+        return List.copyOf(decoders);
+    }
+}
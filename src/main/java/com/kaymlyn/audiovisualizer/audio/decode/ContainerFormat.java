@@ -0,0 +1,63 @@
+package com.kaymlyn.audiovisualizer.audio.decode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Audio file containers, told apart by their leading bytes rather than the file name.
+ */
+public enum ContainerFormat {
+    WAVE, AIFF, AU, MPEG, OGG, FLAC, MP4, UNKNOWN;
+
+    //enough for every signature below
+    static final int HEADER_BYTES = 12;
+
+    public static ContainerFormat of(Path file) throws IOException {
+        byte[] header;
+        try (InputStream in = Files.newInputStream(file)) {
+            header = in.readNBytes(HEADER_BYTES);
+        }
+        return of(header, header.length);
+    }
+
+    public static ContainerFormat of(byte[] header, int length) {
+        if (startsWith(header, length, 0, "RIFF") || startsWith(header, length, 0, "RF64")) {
+            return startsWith(header, length, 8, "WAVE") ? WAVE : UNKNOWN;
+        }
+        if (startsWith(header, length, 0, "FORM")) {
+            return startsWith(header, length, 8, "AIFF") || startsWith(header, length, 8, "AIFC") ? AIFF : UNKNOWN;
+        }
+        if (startsWith(header, length, 0, ".snd")) {
+            return AU;
+        }
+        if (startsWith(header, length, 0, "OggS")) {
+            return OGG;
+        }
+        if (startsWith(header, length, 0, "fLaC")) {
+            return FLAC;
+        }
+        if (startsWith(header, length, 4, "ftyp")) {
+            return MP4;
+        }
+        //an ID3 tag in front of the first frame, or the 11 bit frame sync of a bare MPEG audio stream
+        if (startsWith(header, length, 0, "ID3")
+                || length >= 2 && (header[0] & 0xFF) == 0xFF && (header[1] & 0xE0) == 0xE0) {
+            return MPEG;
+        }
+        return UNKNOWN;
+    }
+
+    private static boolean startsWith(byte[] header, int length, int offset, String signature) {
+        if (length < offset + signature.length()) {
+            return false;
+        }
+        for (int i = 0; i < signature.length(); i++) {
+            if (header[offset + i] != signature.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
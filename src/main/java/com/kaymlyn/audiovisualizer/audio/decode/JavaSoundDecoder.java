@@ -0,0 +1,68 @@
+package com.kaymlyn.audiovisualizer.audio.decode;
+
+import com.kaymlyn.audiovisualizer.audio.PcmDecoder;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Decodes through Java Sound. PCM files are read as they are; compressed encodings go through whichever Java Sound
+ * FormatConversionProvider on the classpath can turn them into 16 bit PCM, such as mp3spi for MPEG audio. Those
+ * convert frame by frame while the stream is read.
+ */
+public final class JavaSoundDecoder implements AudioDecoder {
+
+    @Override
+    public String name() {
+        return "Java Sound";
+    }
+
+    //Java Sound asks every installed file reader, so any container may turn out to be readable
+    @Override
+    public boolean supports(ContainerFormat container) {
+        return true;
+    }
+
+    @Override
+    public AudioInputStream open(File file) throws IOException, UnsupportedAudioFileException {
+        AudioInputStream source = AudioSystem.getAudioInputStream(file);
+        AudioFormat format = source.getFormat();
+        if (PcmDecoder.supports(format)) {
+            return source;
+        }
+
+        AudioFormat pcm = pcmFor(format);
+        if (!AudioSystem.isConversionSupported(pcm, format)) {
+            source.close();
+            throw new UnsupportedAudioFileException("No Java Sound decoder for " + format.getEncoding() + ": " + file);
+        }
+        return AudioSystem.getAudioInputStream(pcm, source);
+    }
+
+    //compressed formats may count their length in codec frames, e.g. one per 1152 samples for MP3, so the header's
+    //frame length is only trusted when a codec frame is a sample frame
+    @Override
+    public long frameLength(File file) throws IOException, UnsupportedAudioFileException {
+        AudioFileFormat fileFormat = AudioSystem.getAudioFileFormat(file);
+        AudioFormat format = fileFormat.getFormat();
+        if (fileFormat.getFrameLength() != AudioSystem.NOT_SPECIFIED
+                && (PcmDecoder.supports(format) || format.getFrameRate() == format.getSampleRate())) {
+            return fileFormat.getFrameLength();
+        }
+        if (fileFormat.getProperty("duration") instanceof Long microseconds && format.getSampleRate() > 0) {
+            return (long) (microseconds * (double) format.getSampleRate() / 1_000_000);
+        }
+        return AudioSystem.NOT_SPECIFIED;
+    }
+
+    private static AudioFormat pcmFor(AudioFormat format) {
+        int channels = Math.max(1, format.getChannels());
+        return new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, format.getSampleRate(), 16, channels, channels * 2,
+                format.getSampleRate(), false);
+    }
+}
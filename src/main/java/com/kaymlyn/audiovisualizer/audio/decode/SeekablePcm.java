@@ -0,0 +1,268 @@
+package com.kaymlyn.audiovisualizer.audio.decode;
+
+import com.kaymlyn.audiovisualizer.audio.AudioProcessor;
+import com.kaymlyn.audiovisualizer.audio.PcmDecoder;
+import com.kaymlyn.audiovisualizer.metrics.DecodeEvent;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Random access to an uncompressed WAVE (including RF64), AIFF or AU file. Only the header is parsed up front; the
+ * sample data is memory mapped and any range of frames is decoded on request, so reaching a window deep into a long
+ * recording costs nothing but the window itself.
+ */
+public final class SeekablePcm implements AutoCloseable {
+
+    private static final ValueLayout.OfByte BYTES = ValueLayout.JAVA_BYTE;
+
+    private final Arena arena;
+    private final AudioFormat format;
+    private final MemorySegment data;
+    private final long frames;
+
+    private SeekablePcm(Arena arena, AudioFormat format, MemorySegment data) {
+        this.arena = arena;
+        this.format = format;
+        this.data = data;
+        this.frames = data.byteSize() / format.getFrameSize();
+    }
+
+    public static boolean supports(ContainerFormat container) {
+        return container == ContainerFormat.WAVE || container == ContainerFormat.AIFF || container == ContainerFormat.AU;
+    }
+
+    public static SeekablePcm open(Path file) throws IOException, UnsupportedAudioFileException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Header header = switch (ContainerFormat.of(file)) {
+                case WAVE -> Header.wave(channel);
+                case AIFF -> Header.aiff(channel);
+                case AU -> Header.au(channel);
+                default -> throw new UnsupportedAudioFileException("Not an uncompressed PCM file: " + file);
+            };
+            if (!PcmDecoder.supports(header.format()) || header.format().getFrameSize() < 1) {
+                throw new UnsupportedAudioFileException("Unsupported sample format " + header.format() + ": " + file);
+            }
+            //a truncated file, or a streamed one whose header was never patched, holds less than it claims
+            long length = Math.min(header.dataLength(), channel.size() - header.dataOffset());
+            length -= length % header.format().getFrameSize();
+            Arena arena = Arena.ofShared();
+            try {
+                MemorySegment data = channel.map(FileChannel.MapMode.READ_ONLY, header.dataOffset(),
+                        Math.max(0, length), arena);
+                return new SeekablePcm(arena, header.format(), data);
+            } catch (IOException | RuntimeException e) {
+                arena.close();
+                throw e;
+            }
+        }
+    }
+
+    public AudioFormat format() {
+        return format;
+    }
+
+    public long frames() {
+        return frames;
+    }
+
+    //the frame playing at the given time, clamped to the audio
+    public long frameAt(double seconds) {
+        return Math.clamp((long) (seconds * format.getFrameRate()), 0, frames);
+    }
+
+    //decodes frames [firstFrame, firstFrame + frameCount), clamped to the audio, handing them over a chunk at a time
+    public void stream(long firstFrame, long frameCount, AudioProcessor.SampleConsumer consumer) {
+        int frameSize = format.getFrameSize();
+        long first = Math.clamp(firstFrame, 0, frames);
+        long end = Math.clamp(first + Math.max(0, frameCount), first, frames);
+        String formatName = format.toString();
+        byte[] chunk = new byte[AudioProcessor.CHUNK_FRAMES * frameSize];
+        int[] samples = new int[AudioProcessor.CHUNK_FRAMES * format.getChannels()];
+        for (long frame = first; frame < end; frame += AudioProcessor.CHUNK_FRAMES) {
+            int length = (int) Math.min(AudioProcessor.CHUNK_FRAMES, end - frame) * frameSize;
+            DecodeEvent event = new DecodeEvent(formatName);
+            event.start();
+            MemorySegment.copy(data, BYTES, frame * frameSize, chunk, 0, length);
+            int decoded = PcmDecoder.decode(format, chunk, 0, length, samples);
+            event.finish(decoded, length);
+            consumer.accept(samples, decoded);
+        }
+    }
+
+    @Override
+    public void close() {
+        arena.close();
+    }
+
+    private record Header(AudioFormat format, long dataOffset, long dataLength) {
+
+        private static final int WAVE_PCM = 1;
+        private static final int WAVE_FLOAT = 3;
+        private static final int WAVE_EXTENSIBLE = 0xFFFE;
+
+        //RIFF chunks: fmt describes the samples, data holds them, RF64 files keep the real sizes in ds64
+        static Header wave(FileChannel channel) throws IOException, UnsupportedAudioFileException {
+            ByteBuffer riff = read(channel, 0, 12, ByteOrder.LITTLE_ENDIAN);
+            boolean rf64 = riff.get(0) == 'R' && riff.get(1) == 'F';
+            AudioFormat format = null;
+            long rf64DataLength = -1;
+            long position = 12;
+            while (position + 8 <= channel.size()) {
+                ByteBuffer chunk = read(channel, position, 8, ByteOrder.LITTLE_ENDIAN);
+                String id = id(chunk, 0);
+                long size = Integer.toUnsignedLong(chunk.getInt(4));
+                long body = position + 8;
+                switch (id) {
+                    case "ds64" -> rf64DataLength = read(channel, body, 16, ByteOrder.LITTLE_ENDIAN).getLong(8);
+                    case "fmt " -> {
+                        if (size < 16) {
+                            throw new UnsupportedAudioFileException("WAVE fmt chunk of " + size + " bytes.");
+                        }
+                        format = waveFormat(read(channel, body, (int) Math.min(size, 40), ByteOrder.LITTLE_ENDIAN));
+                    }
+                    case "data" -> {
+                        if (format == null) {
+                            throw new UnsupportedAudioFileException("WAVE data chunk before its fmt chunk.");
+                        }
+                        return new Header(format, body, rf64 && rf64DataLength >= 0 ? rf64DataLength : size);
+                    }
+                    default -> {
+                    }
+                }
+                //chunks are padded to an even size
+                position = body + size + (size & 1);
+            }
+            throw new UnsupportedAudioFileException("WAVE file without a data chunk.");
+        }
+
+        private static AudioFormat waveFormat(ByteBuffer fmt) throws UnsupportedAudioFileException {
+            int tag = Short.toUnsignedInt(fmt.getShort(0));
+            int channels = Short.toUnsignedInt(fmt.getShort(2));
+            float sampleRate = Integer.toUnsignedLong(fmt.getInt(4));
+            int blockAlign = Short.toUnsignedInt(fmt.getShort(12));
+            int bits = Short.toUnsignedInt(fmt.getShort(14));
+            if (tag == WAVE_EXTENSIBLE && fmt.limit() >= 26) {
+                //the sub format GUID starts with the actual format tag
+                tag = Short.toUnsignedInt(fmt.getShort(24));
+            }
+            AudioFormat.Encoding encoding = switch (tag) {
+                case WAVE_PCM -> bits <= 8 ? AudioFormat.Encoding.PCM_UNSIGNED : AudioFormat.Encoding.PCM_SIGNED;
+                case WAVE_FLOAT -> AudioFormat.Encoding.PCM_FLOAT;
+                default -> throw new UnsupportedAudioFileException("Compressed WAVE format tag " + tag + ".");
+            };
+            return new AudioFormat(encoding, sampleRate, bits, channels, blockAlign, sampleRate, false);
+        }
+
+        //FORM chunks: COMM describes the samples, SSND holds them after an offset
+        static Header aiff(FileChannel channel) throws IOException, UnsupportedAudioFileException {
+            boolean aifc = id(read(channel, 8, 4, ByteOrder.BIG_ENDIAN), 0).equals("AIFC");
+            AudioFormat format = null;
+            long position = 12;
+            while (position + 8 <= channel.size()) {
+                ByteBuffer chunk = read(channel, position, 8, ByteOrder.BIG_ENDIAN);
+                String id = id(chunk, 0);
+                long size = Integer.toUnsignedLong(chunk.getInt(4));
+                long body = position + 8;
+                switch (id) {
+                    case "COMM" -> {
+                        if (size < 18) {
+                            throw new UnsupportedAudioFileException("AIFF COMM chunk of " + size + " bytes.");
+                        }
+                        format = aiffFormat(read(channel, body, (int) Math.min(size, 22), ByteOrder.BIG_ENDIAN), aifc);
+                    }
+                    case "SSND" -> {
+                        if (format == null) {
+                            throw new UnsupportedAudioFileException("AIFF sound data before its COMM chunk.");
+                        }
+                        long offset = Integer.toUnsignedLong(read(channel, body, 4, ByteOrder.BIG_ENDIAN).getInt(0));
+                        return new Header(format, body + 8 + offset, size - 8 - offset);
+                    }
+                    default -> {
+                    }
+                }
+                position = body + size + (size & 1);
+            }
+            throw new UnsupportedAudioFileException("AIFF file without a sound data chunk.");
+        }
+
+        private static AudioFormat aiffFormat(ByteBuffer comm, boolean aifc) throws UnsupportedAudioFileException {
+            int channels = Short.toUnsignedInt(comm.getShort(0));
+            int bits = Short.toUnsignedInt(comm.getShort(6));
+            float sampleRate = (float) extended(comm, 8);
+            AudioFormat.Encoding encoding = AudioFormat.Encoding.PCM_SIGNED;
+            boolean bigEndian = true;
+            if (aifc && comm.limit() >= 22) {
+                switch (id(comm, 18)) {
+                    case "NONE", "twos" -> {
+                    }
+                    case "sowt" -> bigEndian = false;
+                    case "fl32", "FL32", "fl64", "FL64" -> encoding = AudioFormat.Encoding.PCM_FLOAT;
+                    default -> throw new UnsupportedAudioFileException("Compressed AIFC type " + id(comm, 18) + ".");
+                }
+            }
+            int frameSize = channels * ((bits + 7) / 8);
+            return new AudioFormat(encoding, sampleRate, bits, channels, frameSize, sampleRate, bigEndian);
+        }
+
+        //the 80 bit IEEE 754 extended precision number AIFF stores the sample rate in
+        private static double extended(ByteBuffer buffer, int offset) {
+            //the mantissa carries an explicit integer bit at bit 63, its top 53 bits fit a double exactly
+            int exponent = buffer.getShort(offset) & 0x7FFF;
+            long mantissa = buffer.getLong(offset + 2);
+            return Math.scalb((double) (mantissa >>> 11), exponent - 16383 - 52);
+        }
+
+        //a 24 byte big endian header: data offset, data size, encoding, sample rate, channels
+        static Header au(FileChannel channel) throws IOException, UnsupportedAudioFileException {
+            ByteBuffer header = read(channel, 0, 24, ByteOrder.BIG_ENDIAN);
+            long offset = Integer.toUnsignedLong(header.getInt(4));
+            long size = Integer.toUnsignedLong(header.getInt(8));
+            int encoding = header.getInt(12);
+            float sampleRate = Integer.toUnsignedLong(header.getInt(16));
+            int channels = header.getInt(20);
+            int bits = switch (encoding) {
+                case 2 -> 8;
+                case 3 -> 16;
+                case 4 -> 24;
+                case 5, 6 -> 32;
+                case 7 -> 64;
+                default -> throw new UnsupportedAudioFileException("Compressed AU encoding " + encoding + ".");
+            };
+            AudioFormat.Encoding sampleEncoding = encoding >= 6 ? AudioFormat.Encoding.PCM_FLOAT
+                    : AudioFormat.Encoding.PCM_SIGNED;
+            AudioFormat format = new AudioFormat(sampleEncoding, sampleRate, bits, channels, channels * bits / 8,
+                    sampleRate, true);
+            //an unknown size is written as all ones
+            return new Header(format, offset, size == 0xFFFFFFFFL ? Long.MAX_VALUE : size);
+        }
+
+        private static ByteBuffer read(FileChannel channel, long position, int length, ByteOrder order)
+                throws IOException, UnsupportedAudioFileException {
+            ByteBuffer buffer = ByteBuffer.allocate(length).order(order);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new UnsupportedAudioFileException("Audio header ends early.");
+                }
+            }
+            return buffer.flip();
+        }
+
+        private static String id(ByteBuffer buffer, int offset) {
+            char[] id = new char[4];
+            for (int i = 0; i < 4; i++) {
+                id[i] = (char) (buffer.get(offset + i) & 0xFF);
+            }
+            return new String(id);
+        }
+    }
+}
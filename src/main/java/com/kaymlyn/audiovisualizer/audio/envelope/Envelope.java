@@ -0,0 +1,170 @@
+package com.kaymlyn.audiovisualizer.audio.envelope;
+
+/**
+ * Peak, RMS and optionally K-weighted loudness of every channel, per bucket of bucketFrames frames. The last bucket
+ * may hold fewer frames. Peaks and RMS are in sample units, as decoded; loudness is in LUFS following ITU-R BS.1770,
+ * ungated and with a channel weight of 1, and is negative infinity for silence.
+ * <p>
+ * An envelope is built by an {@link EnvelopeExtractor} and never modified afterwards, so it can be shared between
+ * renderers. Columns of a canvas are summarized from whole buckets, without touching the samples again;
+ * {@link EnvelopeRenderer} draws them as a lane per channel.
+ */
+public final class Envelope {
+
+    //BS.1770 offset of the loudness of a full scale 997 Hz sine after K-weighting
+    private static final double LOUDNESS_OFFSET = -0.691;
+
+    private final int bucketFrames;
+    private final int channels;
+    private final long frameCount;
+    private final float sampleRate;
+    private final double fullScale;
+    private final int[][] peak;
+    private final double[][] energy;
+    //null when not K-weighted
+    private final double[][] weighted;
+    private final EnvelopeExtractor.Totals totals;
+
+    Envelope(int bucketFrames, int channels, long frameCount, float sampleRate, double fullScale, int[][] peak,
+             double[][] energy, double[][] weighted, EnvelopeExtractor.Totals totals) {
+        this.bucketFrames = bucketFrames;
+        this.channels = channels;
+        this.frameCount = frameCount;
+        this.sampleRate = sampleRate;
+        this.fullScale = fullScale;
+        this.peak = peak;
+        this.energy = energy;
+        this.weighted = weighted;
+        this.totals = totals;
+    }
+
+    public int bucketFrames() {
+        return bucketFrames;
+    }
+
+    public int channels() {
+        return channels;
+    }
+
+    public int buckets() {
+        return peak[0].length;
+    }
+
+    public long frameCount() {
+        return frameCount;
+    }
+
+    public float sampleRate() {
+        return sampleRate;
+    }
+
+    //magnitude of a full scale sample, peaks and RMS divided by it are relative to full scale
+    public double fullScale() {
+        return fullScale;
+    }
+
+    public boolean kWeighted() {
+        return weighted != null;
+    }
+
+    public int peak(int channel, int bucket) {
+        return peak[channel][bucket];
+    }
+
+    public double rms(int channel, int bucket) {
+        return Math.sqrt(energy[channel][bucket] / framesIn(bucket));
+    }
+
+    public double loudness(int channel, int bucket) {
+        return loudness(weighted()[channel][bucket] / framesIn(bucket));
+    }
+
+    //largest absolute sample of the channel
+    public int peak(int channel) {
+        return totals.peak()[channel];
+    }
+
+    public double rms(int channel) {
+        return frameCount == 0 ? 0 : Math.sqrt(totals.energy()[channel] / frameCount);
+    }
+
+    public double loudness(int channel) {
+        weighted();
+        return frameCount == 0 ? Double.NEGATIVE_INFINITY : loudness(totals.weighted()[channel] / frameCount);
+    }
+
+    //loudness of all channels together, their mean squares summed
+    public double loudness() {
+        weighted();
+        double sum = 0;
+        for (int channel = 0; channel < channels; channel++) {
+            sum += totals.weighted()[channel];
+        }
+        return frameCount == 0 ? Double.NEGATIVE_INFINITY : loudness(sum / frameCount);
+    }
+
+    /**
+     * Summarizes count columns of framesPerColumn frames of one channel, column k starting at frame
+     * (firstColumn + k) * framesPerColumn as in PeakPyramid.columnsAt. Every bucket a column touches counts in full.
+     * Columns outside the audio get a peak of -1, an RMS of 0 and a loudness of negative infinity.
+     *
+     * @param peakOut     may be null when the peaks are not needed, as may the others.
+     * @param loudnessOut must be null unless the envelope is K-weighted.
+     */
+    public void columnsAt(long firstColumn, double framesPerColumn, int count, int channel, int[] peakOut,
+                          double[] rmsOut, double[] loudnessOut) {
+        if (loudnessOut != null) {
+            weighted();
+        }
+        int[] channelPeak = peak[channel];
+        double[] channelEnergy = energy[channel];
+        double[] channelWeighted = weighted == null ? null : weighted[channel];
+        for (int c = 0; c < count; c++) {
+            long from = (long) Math.floor((firstColumn + c) * framesPerColumn);
+            long to = Math.max(from + 1, (long) Math.floor((firstColumn + c + 1) * framesPerColumn));
+            from = Math.max(0, from);
+            to = Math.min(frameCount, to);
+
+            int cPeak = -1;
+            double cEnergy = 0;
+            double cWeighted = 0;
+            long cFrames = 0;
+            if (from < to) {
+                int first = (int) (from / bucketFrames);
+                int last = (int) ((to - 1) / bucketFrames);
+                for (int b = first; b <= last; b++) {
+                    cPeak = Math.max(cPeak, channelPeak[b]);
+                    cEnergy += channelEnergy[b];
+                    if (channelWeighted != null) {
+                        cWeighted += channelWeighted[b];
+                    }
+                    cFrames += framesIn(b);
+                }
+            }
+            if (peakOut != null) {
+                peakOut[c] = cPeak;
+            }
+            if (rmsOut != null) {
+                rmsOut[c] = cFrames == 0 ? 0 : Math.sqrt(cEnergy / cFrames);
+            }
+            if (loudnessOut != null) {
+                loudnessOut[c] = cFrames == 0 ? Double.NEGATIVE_INFINITY : loudness(cWeighted / cFrames);
+            }
+        }
+    }
+
+    private long framesIn(int bucket) {
+        return Math.min(bucketFrames, frameCount - (long) bucket * bucketFrames);
+    }
+
+    private double loudness(double meanSquare) {
+        return LOUDNESS_OFFSET + 10 * Math.log10(meanSquare / (fullScale * fullScale));
+    }
+
+    private double[][] weighted() {
+        if (weighted == null) {
+            throw new IllegalStateException("The envelope was extracted without K-weighting.");
+        }
+        return weighted;
+    }
+}
@@ -0,0 +1,284 @@
+package com.kaymlyn.audiovisualizer.audio.envelope;
+
+import com.kaymlyn.audiovisualizer.audio.AudioProcessor;
+import com.kaymlyn.audiovisualizer.audio.PcmDecoder;
+import com.kaymlyn.audiovisualizer.audio.SampleStore;
+import com.kaymlyn.audiovisualizer.metrics.EnvelopeEvent;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.Arrays;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Builds an {@link Envelope} in one pass over interleaved samples, every channel kept apart. As a SampleConsumer it
+ * takes the samples while the audio streams in and must be {@link #finish() finished} once they are all in.
+ * <p>
+ * {@link #extract(SampleStore, int, boolean)} instead splits a decoded store into runs of whole buckets that are
+ * summarized in parallel on the common fork-join pool. Runs never share a bucket, so each one fills its own buckets
+ * and only the per channel totals are merged, by max and sum, which in any order give the same result. The K-weighting
+ * filter carries state from sample to sample; a run therefore first feeds the filter the WARMUP_SECONDS of audio
+ * before it, by when the state of a sequential pass has been forgotten to well below double precision.
+ */
+public final class EnvelopeExtractor implements AudioProcessor.SampleConsumer {
+
+    //runs of fewer samples than this are summarized on the calling thread
+    private static final int PARALLEL_THRESHOLD = 1 << 18;
+    //the slowest K-weighting stage, the 38 Hz high pass, decays by e in about 4 ms
+    private static final double WARMUP_SECONDS = 0.2;
+
+    //peak, energy and K-weighted energy of every channel over a stretch of frames
+    record Totals(int[] peak, double[] energy, double[] weighted) {
+
+        Totals(int channels) {
+            this(new int[channels], new double[channels], new double[channels]);
+        }
+
+        Totals merge(Totals other) {
+            for (int channel = 0; channel < peak.length; channel++) {
+                peak[channel] = Math.max(peak[channel], other.peak[channel]);
+                energy[channel] += other.energy[channel];
+                weighted[channel] += other.weighted[channel];
+            }
+            return this;
+        }
+    }
+
+    private final AudioFormat format;
+    private final int bucketFrames;
+    private final int channels;
+    //grows with the audio when streaming, fixed when filling a run of a store's buckets
+    private final boolean growable;
+    private final KWeighting[] filters;
+    private final Totals totals;
+
+    private int[][] peak;
+    private double[][] energy;
+    private double[][] weighted;
+    private int bucket;
+    private long frameCount;
+    private boolean finished;
+
+    //state of the bucket currently being filled
+    private final int[] bucketPeak;
+    private final double[] bucketEnergy;
+    private final double[] bucketWeighted;
+    private int bucketFill;
+    private int channel;
+
+    //buckets of bucketFrames frames of audio decoded from format, K-weighted loudness too when kWeighted
+    public EnvelopeExtractor(AudioFormat format, int bucketFrames, boolean kWeighted) {
+        this(format, bucketFrames, kWeighted, true, 0, null, null, null);
+        int capacity = 1024;
+        peak = new int[channels][capacity];
+        energy = new double[channels][capacity];
+        weighted = kWeighted ? new double[channels][capacity] : null;
+    }
+
+    private EnvelopeExtractor(AudioFormat format, int bucketFrames, boolean kWeighted, boolean growable,
+                              int firstBucket, int[][] peak, double[][] energy, double[][] weighted) {
+        if (bucketFrames < 1 || format.getChannels() < 1) {
+            throw new IllegalArgumentException("Bucket size and channel count must be positive.");
+        }
+        this.format = format;
+        this.bucketFrames = bucketFrames;
+        this.channels = format.getChannels();
+        this.growable = growable;
+        this.bucket = firstBucket;
+        this.peak = peak;
+        this.energy = energy;
+        this.weighted = weighted;
+        this.totals = new Totals(channels);
+        this.bucketPeak = new int[channels];
+        this.bucketEnergy = new double[channels];
+        this.bucketWeighted = new double[channels];
+        if (kWeighted) {
+            filters = new KWeighting[channels];
+            for (int i = 0; i < channels; i++) {
+                filters[i] = new KWeighting(format.getSampleRate());
+            }
+        } else {
+            filters = null;
+        }
+    }
+
+    @Override
+    public void accept(int[] samples, int length) {
+        if (finished) {
+            throw new IllegalStateException("Envelope is already finished.");
+        }
+        int[] bPeak = bucketPeak;
+        double[] bEnergy = bucketEnergy;
+        for (int i = 0; i < length; i++) {
+            int c = channel;
+            int sample = samples[i];
+            int abs = sample == Integer.MIN_VALUE ? Integer.MAX_VALUE : Math.abs(sample);
+            if (abs > bPeak[c]) {
+                bPeak[c] = abs;
+            }
+            bEnergy[c] += (double) sample * sample;
+            if (filters != null) {
+                double filtered = filters[c].apply(sample);
+                bucketWeighted[c] += filtered * filtered;
+            }
+            if (++channel == channels) {
+                channel = 0;
+                if (++bucketFill == bucketFrames) {
+                    closeBucket();
+                }
+            }
+        }
+    }
+
+    //runs samples through the K-weighting filters only, to bring them into the state a sequential pass would have
+    private void warmUp(int[] samples, int length) {
+        for (int i = 0; i < length; i++) {
+            filters[channel].apply(samples[i]);
+            if (++channel == channels) {
+                channel = 0;
+            }
+        }
+    }
+
+    private void closeBucket() {
+        if (bucket == peak[0].length) {
+            if (!growable) {
+                throw new IllegalStateException("More buckets than the envelope was sized for.");
+            }
+            int size = bucket * 2;
+            for (int c = 0; c < channels; c++) {
+                peak[c] = Arrays.copyOf(peak[c], size);
+                energy[c] = Arrays.copyOf(energy[c], size);
+                if (weighted != null) {
+                    weighted[c] = Arrays.copyOf(weighted[c], size);
+                }
+            }
+        }
+        for (int c = 0; c < channels; c++) {
+            peak[c][bucket] = bucketPeak[c];
+            energy[c][bucket] = bucketEnergy[c];
+            totals.peak()[c] = Math.max(totals.peak()[c], bucketPeak[c]);
+            totals.energy()[c] += bucketEnergy[c];
+            if (weighted != null) {
+                weighted[c][bucket] = bucketWeighted[c];
+                totals.weighted()[c] += bucketWeighted[c];
+            }
+        }
+        bucket++;
+        frameCount += bucketFill;
+
+        Arrays.fill(bucketPeak, 0);
+        Arrays.fill(bucketEnergy, 0);
+        Arrays.fill(bucketWeighted, 0);
+        bucketFill = 0;
+    }
+
+    //closes the trailing partial bucket; a trailing partial frame is dropped
+    public Envelope finish() {
+        if (!finished) {
+            finished = true;
+            if (bucketFill > 0) {
+                closeBucket();
+            }
+        }
+        return new Envelope(bucketFrames, channels, frameCount, format.getSampleRate(), PcmDecoder.fullScale(format),
+                growable ? trim(peak) : peak, growable ? trim(energy) : energy,
+                weighted == null ? null : growable ? trim(weighted) : weighted, totals);
+    }
+
+    private int[][] trim(int[][] levels) {
+        int[][] trimmed = new int[channels][];
+        for (int c = 0; c < channels; c++) {
+            trimmed[c] = Arrays.copyOf(levels[c], bucket);
+        }
+        return trimmed;
+    }
+
+    private double[][] trim(double[][] levels) {
+        double[][] trimmed = new double[channels][];
+        for (int c = 0; c < channels; c++) {
+            trimmed[c] = Arrays.copyOf(levels[c], bucket);
+        }
+        return trimmed;
+    }
+
+    //the envelope of every sample in the store, summarized in parallel. The store stays open.
+    public static Envelope extract(SampleStore store, int bucketFrames, boolean kWeighted) {
+        EnvelopeEvent event = new EnvelopeEvent(store.channels(), bucketFrames, kWeighted);
+        event.start();
+        AudioFormat format = store.format();
+        int channels = store.channels();
+        long frames = store.frames();
+        int buckets = (int) ((frames + bucketFrames - 1) / bucketFrames);
+        int[][] peak = new int[channels][buckets];
+        double[][] energy = new double[channels][buckets];
+        double[][] weighted = kWeighted ? new double[channels][buckets] : null;
+
+        Totals totals = new RunTask(store, bucketFrames, kWeighted, 0, buckets, peak, energy, weighted).invoke();
+        Envelope envelope = new Envelope(bucketFrames, channels, frames, format.getSampleRate(),
+                PcmDecoder.fullScale(format), peak, energy, weighted, totals);
+        event.finish(frames, frames * channels * store.width().bytes());
+        return envelope;
+    }
+
+    //summarizes buckets [fromBucket, toBucket) of a store into the shared arrays
+    private static class RunTask extends RecursiveTask<Totals> {
+        private final SampleStore store;
+        private final int bucketFrames;
+        private final boolean kWeighted;
+        private final int fromBucket;
+        private final int toBucket;
+        private final int[][] peak;
+        private final double[][] energy;
+        private final double[][] weighted;
+
+        private RunTask(SampleStore store, int bucketFrames, boolean kWeighted, int fromBucket, int toBucket,
+                        int[][] peak, double[][] energy, double[][] weighted) {
+            this.store = store;
+            this.bucketFrames = bucketFrames;
+            this.kWeighted = kWeighted;
+            this.fromBucket = fromBucket;
+            this.toBucket = toBucket;
+            this.peak = peak;
+            this.energy = energy;
+            this.weighted = weighted;
+        }
+
+        @Override
+        protected Totals compute() {
+            int channels = store.channels();
+            if ((long) (toBucket - fromBucket) * bucketFrames * channels <= PARALLEL_THRESHOLD
+                    || toBucket - fromBucket < 2) {
+                return summarize();
+            }
+            int middle = fromBucket + (toBucket - fromBucket) / 2;
+            RunTask left = new RunTask(store, bucketFrames, kWeighted, fromBucket, middle, peak, energy, weighted);
+            left.fork();
+            Totals totals = new RunTask(store, bucketFrames, kWeighted, middle, toBucket, peak, energy, weighted)
+                    .compute();
+            return left.join().merge(totals);
+        }
+
+        private Totals summarize() {
+            int channels = store.channels();
+            EnvelopeExtractor run = new EnvelopeExtractor(store.format(), bucketFrames, kWeighted, false, fromBucket,
+                    peak, energy, weighted);
+            long firstFrame = (long) fromBucket * bucketFrames;
+            long endFrame = Math.min(store.frames(), (long) toBucket * bucketFrames);
+            int[] buffer = new int[AudioProcessor.CHUNK_FRAMES * channels];
+
+            if (kWeighted && firstFrame > 0) {
+                long warmup = Math.min(firstFrame, (long) Math.ceil(WARMUP_SECONDS * store.format().getSampleRate()));
+                for (long sample = (firstFrame - warmup) * channels; sample < firstFrame * channels; ) {
+                    int read = store.read(sample, buffer, 0, (int) Math.min(buffer.length, firstFrame * channels - sample));
+                    run.warmUp(buffer, read);
+                    sample += read;
+                }
+            }
+            store.stream(firstFrame * channels, endFrame * channels, buffer.length, run);
+            if (run.bucketFill > 0) {
+                run.closeBucket();
+            }
+            return run.totals;
+        }
+    }
+}
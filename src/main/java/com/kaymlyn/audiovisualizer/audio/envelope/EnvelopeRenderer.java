@@ -0,0 +1,121 @@
+package com.kaymlyn.audiovisualizer.audio.envelope;
+
+import com.kaymlyn.audiovisualizer.audio.AudioProcessor.Canvas;
+import com.kaymlyn.audiovisualizer.audio.AudioProcessor.InfoBlock;
+import com.kaymlyn.audiovisualizer.audio.Renderer;
+import com.kaymlyn.audiovisualizer.audio.StaticLayer;
+import com.kaymlyn.audiovisualizer.image.ImageOutput;
+import com.kaymlyn.audiovisualizer.metrics.RenderEvent;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Renders an {@link Envelope} with every channel in a lane of its own, top to bottom: a band reaching the column's peak
+ * in the canvas color, and inside it a band reaching the column's RMS in the RMS color. All lanes share one scale, the
+ * loudest peak of any channel filling its lane. As with AudioWaveformRenderer, frame index n shows the columns leading up
+ * to column n, and renderToImage keeps no state, so frames can be rendered from several threads at once.
+ */
+public class EnvelopeRenderer implements Renderer {
+
+    private final Envelope envelope;
+    private final Canvas canvas;
+    private final InfoBlock info;
+    private final int width;
+    private final int height;
+    private final int scale;
+    private volatile double framesPerColumn;
+    private volatile int rmsColor;
+    private volatile ImageOutput output = ImageOutput.DEFAULT;
+
+    public EnvelopeRenderer(Envelope envelope, Canvas canvas, InfoBlock info) {
+        if (envelope.channels() > canvas.imageBounds().height) {
+            throw new IllegalArgumentException("Every channel needs at least one row of the canvas.");
+        }
+        this.envelope = envelope;
+        this.canvas = canvas;
+        this.info = info;
+        this.width = canvas.imageBounds().width;
+        this.height = canvas.imageBounds().height;
+        int loudest = 0;
+        for (int channel = 0; channel < envelope.channels(); channel++) {
+            loudest = Math.max(loudest, envelope.peak(channel));
+        }
+        this.scale = loudest;
+        //by default the whole track is fit onto the canvas
+        this.framesPerColumn = Math.max(1, (double) envelope.frameCount() / width);
+        Color peak = canvas.initialColor();
+        //halfway between the peak color and white
+        this.rmsColor = new Color((peak.getRed() + 255) / 2, (peak.getGreen() + 255) / 2, (peak.getBlue() + 255) / 2)
+                .getRGB();
+    }
+
+    //sets how many audio frames are summarized by each column of the canvas
+    public EnvelopeRenderer withZoom(double framesPerColumn) {
+        if (framesPerColumn <= 0) {
+            throw new IllegalArgumentException("Frames per column must be positive.");
+        }
+        this.framesPerColumn = framesPerColumn;
+        return this;
+    }
+
+    public EnvelopeRenderer withRmsColor(Color color) {
+        this.rmsColor = color.getRGB();
+        return this;
+    }
+
+    //selects the encoder and its settings used by renderToFile
+    public EnvelopeRenderer withOutput(ImageOutput output) {
+        this.output = output;
+        return this;
+    }
+
+    @Override
+    public BufferedImage renderToImage(int frameIndex) {
+        RenderEvent event = new RenderEvent("envelope", frameIndex, width, height);
+        event.start();
+        StaticLayer layer = StaticLayer.of(canvas, info);
+        BufferedImage image = layer.newImage();
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+
+        int[] peak = new int[width];
+        double[] rms = new double[width];
+        int peakColor = 0xFF000000 | canvas.initialColor().getRGB();
+        int bandColor = 0xFF000000 | rmsColor;
+        int channels = envelope.channels();
+        for (int channel = 0; channel < channels; channel++) {
+            envelope.columnsAt((long) frameIndex - width, framesPerColumn, width, channel, peak, rms, null);
+            int laneTop = channel * height / channels;
+            int laneBottom = (channel + 1) * height / channels - 1;
+            for (int x = 0; x < width; x++) {
+                //columns outside the audio stay empty
+                if (peak[x] >= 0) {
+                    fill(pixels, x, laneTop, laneBottom, peak[x], peakColor);
+                    fill(pixels, x, laneTop, laneBottom, rms[x], bandColor);
+                }
+            }
+        }
+        layer.copyInsetInto(pixels);
+        event.finish(1, (long) pixels.length * Integer.BYTES);
+        return image;
+    }
+
+    @Override
+    public void renderToFile(File imageFile) throws IOException {
+        output.write(renderToImage(width), imageFile);
+    }
+
+    //fills column x of the lane from +level to -level around its middle
+    private void fill(int[] pixels, int x, int laneTop, int laneBottom, double level, int color) {
+        double middle = (laneTop + laneBottom) / 2.0;
+        double reach = scale == 0 ? 0 : level / scale * (laneBottom - laneTop) / 2.0;
+        int from = Math.max(laneTop, (int) Math.round(middle - reach));
+        int to = Math.min(laneBottom, (int) Math.round(middle + reach));
+        for (int y = from; y <= to; y++) {
+            pixels[y * width + x] = color;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.kaymlyn.audiovisualizer.audio.envelope;
+
+/**
+ * The K-weighting pre-filter of ITU-R BS.1770 for one channel: a high shelf modelling the head, followed by a high
+ * pass. Coefficients are derived for the sample rate instead of using the published 48 kHz ones, so every rate is
+ * weighted the same way. Both stages are biquads in transposed direct form II.
+ */
+final class KWeighting {
+
+    //analog prototypes of the two stages
+    private static final double SHELF_FREQUENCY = 1681.974450955533;
+    private static final double SHELF_GAIN_DB = 3.999843853973347;
+    private static final double SHELF_Q = 0.7071752369554196;
+    private static final double HIGH_PASS_FREQUENCY = 38.13547087602444;
+    private static final double HIGH_PASS_Q = 0.5003270373238773;
+
+    private final double shelfB0;
+    private final double shelfB1;
+    private final double shelfB2;
+    private final double shelfA1;
+    private final double shelfA2;
+    private final double highPassA1;
+    private final double highPassA2;
+
+    private double shelf1;
+    private double shelf2;
+    private double highPass1;
+    private double highPass2;
+
+    KWeighting(double sampleRate) {
+        if (!(sampleRate > 2 * SHELF_FREQUENCY)) {
+            throw new IllegalArgumentException("K-weighting needs a sample rate above " + 2 * SHELF_FREQUENCY + " Hz.");
+        }
+        double k = Math.tan(Math.PI * SHELF_FREQUENCY / sampleRate);
+        double vh = Math.pow(10, SHELF_GAIN_DB / 20);
+        double vb = Math.pow(vh, 0.4996667741545416);
+        double a0 = 1 + k / SHELF_Q + k * k;
+        shelfB0 = (vh + vb * k / SHELF_Q + k * k) / a0;
+        shelfB1 = 2 * (k * k - vh) / a0;
+        shelfB2 = (vh - vb * k / SHELF_Q + k * k) / a0;
+        shelfA1 = 2 * (k * k - 1) / a0;
+        shelfA2 = (1 - k / SHELF_Q + k * k) / a0;
+
+        k = Math.tan(Math.PI * HIGH_PASS_FREQUENCY / sampleRate);
+        a0 = 1 + k / HIGH_PASS_Q + k * k;
+        highPassA1 = 2 * (k * k - 1) / a0;
+        highPassA2 = (1 - k / HIGH_PASS_Q + k * k) / a0;
+    }
+
+    //the next output of the filter, whose numerator of the high pass is fixed at 1, -2, 1
+    double apply(double sample) {
+        double shelved = shelfB0 * sample + shelf1;
+        shelf1 = shelfB1 * sample - shelfA1 * shelved + shelf2;
+        shelf2 = shelfB2 * sample - shelfA2 * shelved;
+
+        double weighted = shelved + highPass1;
+        highPass1 = -2 * shelved - highPassA1 * weighted + highPass2;
+        highPass2 = shelved - highPassA2 * weighted;
+        return weighted;
+    }
+}
@@ -0,0 +1,69 @@
+package com.kaymlyn.audiovisualizer.audio.power;
+
+/**
+ * In-place iterative radix-2 FFT over separate real and imaginary double arrays. The twiddle factors and bit reversal
+ * permutation are computed once per size; an Fft holds no per-transform state, so one instance can be shared by any
+ * number of threads as long as each brings its own buffers.
+ */
+public final class Fft {
+
+    private final int size;
+    private final int[] reversed;
+    private final double[] cos;
+    private final double[] sin;
+
+    public Fft(int size) {
+        if (size < 2 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("FFT size must be a power of two, was " + size);
+        }
+        this.size = size;
+
+        int bits = Integer.numberOfTrailingZeros(size);
+        reversed = new int[size];
+        for (int i = 0; i < size; i++) {
+            reversed[i] = Integer.reverse(i) >>> (32 - bits);
+        }
+        cos = new double[size / 2];
+        sin = new double[size / 2];
+        for (int i = 0; i < size / 2; i++) {
+            cos[i] = Math.cos(2 * Math.PI * i / size);
+            sin[i] = Math.sin(2 * Math.PI * i / size);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    //forward transform of the first size entries of re and im, overwriting them with the result
+    public void transform(double[] re, double[] im) {
+        for (int i = 0; i < size; i++) {
+            int j = reversed[i];
+            if (j > i) {
+                double swap = re[i];
+                re[i] = re[j];
+                re[j] = swap;
+                swap = im[i];
+                im[i] = im[j];
+                im[j] = swap;
+            }
+        }
+
+        for (int half = 1; half < size; half <<= 1) {
+            int step = size / (2 * half);
+            for (int start = 0; start < size; start += 2 * half) {
+                for (int k = 0, twiddle = 0; k < half; k++, twiddle += step) {
+                    int a = start + k;
+                    int b = a + half;
+                    //multiply by e^(-2 pi i k / 2 half)
+                    double tre = re[b] * cos[twiddle] + im[b] * sin[twiddle];
+                    double tim = im[b] * cos[twiddle] - re[b] * sin[twiddle];
+                    re[b] = re[a] - tre;
+                    im[b] = im[a] - tim;
+                    re[a] += tre;
+                    im[a] += tim;
+                }
+            }
+        }
+    }
+}
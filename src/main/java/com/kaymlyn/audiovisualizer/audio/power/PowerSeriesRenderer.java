@@ -2,108 +2,173 @@ package com.kaymlyn.audiovisualizer.audio.power;
 
 import com.kaymlyn.audiovisualizer.audio.AudioProcessor;
 import com.kaymlyn.audiovisualizer.audio.Renderer;
-import com.kaymlyn.audiovisualizer.audio.wave.Fading;
+import com.kaymlyn.audiovisualizer.audio.StaticLayer;
+import com.kaymlyn.audiovisualizer.image.ImageOutput;
+import com.kaymlyn.audiovisualizer.metrics.RenderEvent;
 
-import java.awt.*;
-import java.awt.geom.Rectangle2D;
+import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.File;
 import java.io.IOException;
-
+import java.util.Arrays;
+
+/**
+ * Scrolling spectrogram. Every column of the canvas is one STFT frame, low frequencies at the bottom, and frame index n
+ * shows the frames leading up to n.
+ * <p>
+ * Rendered columns are kept in a ring buffer, so moving forward from the previous frame index only computes the newly
+ * exposed columns; everything else is a row copy out of the ring. Because of that state a renderer must not be shared
+ * between threads rendering different frames; renderToImage is synchronized to keep accidental sharing safe, and
+ * {@link #keepsState()} tells video renderers to render its frames in order.
+ */
 public class PowerSeriesRenderer implements Renderer {
 
+    public static final double DEFAULT_DYNAMIC_RANGE = 80;
+    private static final int PALETTE_SIZE = 256;
+
     private final AudioProcessor.Canvas canvas;
     private final AudioProcessor.InfoBlock info;
-
-    public PowerSeriesRenderer(AudioProcessor.Canvas canvas, AudioProcessor.InfoBlock info) {
+    private final Spectrogram spectrogram;
+    private final int width;
+    private final int height;
+
+    //first and last (exclusive) bin summarized by every row
+    private final int[] rowFirstBin;
+    private final int[] rowLastBin;
+    private final int[] palette;
+    //power at which each palette entry starts, ascending
+    private float[] thresholds;
+    private volatile ImageOutput output = ImageOutput.DEFAULT;
+
+    //ring of rendered columns, column c of the canvas lives at ring column (origin + c) % width
+    private final int[] ring;
+    private int origin;
+    //frame index the ring currently holds, or Integer.MIN_VALUE when it holds nothing
+    private int ringFrame = Integer.MIN_VALUE;
+
+    public PowerSeriesRenderer(Spectrogram spectrogram, AudioProcessor.Canvas canvas, AudioProcessor.InfoBlock info) {
+        this.spectrogram = spectrogram;
         this.canvas = canvas;
         this.info = info;
+        this.width = canvas.imageBounds().width;
+        this.height = canvas.imageBounds().height;
+        this.ring = new int[width * height];
+
+        rowFirstBin = new int[height];
+        rowLastBin = new int[height];
+        for (int y = 0; y < height; y++) {
+            int row = height - 1 - y;
+            rowFirstBin[y] = (int) ((long) row * spectrogram.bins() / height);
+            rowLastBin[y] = Math.max(rowFirstBin[y] + 1, (int) ((long) (row + 1) * spectrogram.bins() / height));
+        }
+
+        palette = palette(canvas.globalBackground(), canvas.initialColor(), Color.WHITE);
+        withDynamicRange(DEFAULT_DYNAMIC_RANGE);
     }
 
+    //decibels below the loudest bin that still get a color, anything quieter is drawn as background
+    public synchronized PowerSeriesRenderer withDynamicRange(double decibels) {
+        double maxPower = spectrogram.maxPower();
+        thresholds = new float[PALETTE_SIZE];
+        for (int level = 0; level < PALETTE_SIZE; level++) {
+            double belowMax = decibels * (PALETTE_SIZE - 1 - level) / (PALETTE_SIZE - 1);
+            thresholds[level] = (float) (maxPower * Math.pow(10, -belowMax / 10));
+        }
+        ringFrame = Integer.MIN_VALUE;
+        return this;
+    }
 
-    @Override
-    public BufferedImage renderToImage(int frameIndex) {
-        return null;
+    //selects the encoder and its settings used by renderToFile
+    public PowerSeriesRenderer withOutput(ImageOutput output) {
+        this.output = output;
+        return this;
     }
 
     @Override
-    public void renderToFile(File imageFile) throws IOException {
-
+    public synchronized BufferedImage renderToImage(int frameIndex) {
+        RenderEvent event = new RenderEvent("spectrogram", frameIndex, width, height);
+        event.start();
+        advanceTo(frameIndex);
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            System.arraycopy(ring, row + origin, pixels, row, width - origin);
+            System.arraycopy(ring, row, pixels, row + width - origin, origin);
+        }
+        StaticLayer.of(canvas, info).copyInsetInto(pixels);
+        event.finish(1, (long) pixels.length * Integer.BYTES);
+        return image;
     }
 
-    private Graphics2D render(Graphics2D graphics, int lineLimit, Fading.Fade fadeRate) {
-//        //total number of lines from the left to render. Fade is not considered in this calculation
-//        int totalLines;
-//        if(lineLimit < 0 || lineLimit > rawWaveform.size()) {
-//            totalLines = rawWaveform.size();
-//        } else {
-//            totalLines = lineLimit;
-//        }
-//
-//        //preserve starting color for additional renders.
-//        Color currentColor = new Color(
-//                (canvas.initialColor().getRed() + canvas.shift().getRed()) % 255,
-//                (canvas.initialColor().getGreen() + canvas.shift().getGreen()) % 255,
-//                (canvas.initialColor().getBlue() + canvas.shift().getBlue()) % 255
-//        );
-//
-//        graphics.setColor(currentColor);
-//
-//        //fade is calculated based on the overall image. need to identify a way to set an offset. Ideally, if the
-//        //waveform stops at the middle of the canvas and the fade rate would require the whole canvas to complete
-//        //the waveform at the edge of the canvas should only be half faded.
-//        for (int i = 1; i < rawWaveform.size() && i < totalLines; i++) {
-//            currentColor = new Color((currentColor.getRed() + canvas.shift().getRed()) % 255,
-//                    (currentColor.getGreen() + canvas.shift().getGreen()) % 255,
-//                    (currentColor.getBlue() + canvas.shift().getBlue()) % 255);
-//
-//            graphics.setColor(new Color(
-//                    fadeComponent(currentColor.getRed(), canvas.globalBackground().getRed(), fadeRate.redFade(), totalLines - i),
-//                    fadeComponent(currentColor.getGreen(), canvas.globalBackground().getGreen(), fadeRate.greenFade(), totalLines - i),
-//                    fadeComponent(currentColor.getBlue(), canvas.globalBackground().getBlue(), fadeRate.blueFade(), totalLines - i)
-//            ));
-//            graphics.draw(rawWaveform.get(i));
-//        }
-//        return graphics;
-        return null;
+    @Override
+    public boolean keepsState() {
+        return true;
     }
 
-    private Graphics2D prepareCanvas(BufferedImage image) {
-        Graphics2D g2 = image.createGraphics();
-
-        g2.setBackground(canvas.globalBackground());
-        g2.clearRect(0, 0, canvas.imageBounds().width, canvas.imageBounds().height);
-
-        if(info != null) {
-            FontMetrics fontMetrics = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB)
-                    .getGraphics()
-                    .getFontMetrics(info.infoFont());
-            Rectangle2D stringBounds = fontMetrics.getStringBounds(info.info(), g2);
+    @Override
+    public void renderToFile(File imageFile) throws IOException {
+        output.write(renderToImage(Math.min(width, spectrogram.frames())), imageFile);
+    }
 
-            g2.setColor(info.infoInsetColor());
-            g2.fillRect(0, canvas.imageBounds().height - (int) (stringBounds.getHeight()), (int) stringBounds.getWidth() + 4, canvas.imageBounds().height + (int) stringBounds.getHeight() + 4);
-            g2.setColor(Color.BLUE);
-            g2.setFont(info.infoFont());
-            g2.drawString(info.info(), 3, canvas.imageBounds().height - 4);
+    //brings the ring up to frameIndex, drawing only the columns that were not visible at the previous frame index
+    private void advanceTo(int frameIndex) {
+        long delta = (long) frameIndex - ringFrame;
+        if (ringFrame == Integer.MIN_VALUE || delta < 0 || delta >= width) {
+            origin = 0;
+            for (int column = 0; column < width; column++) {
+                drawColumn(column, frameIndex - width + column);
+            }
+        } else {
+            for (int step = 0; step < delta; step++) {
+                //the oldest column becomes the newest
+                int column = origin;
+                origin = (origin + 1) % width;
+                drawColumn(column, ringFrame + step);
+            }
         }
-        return g2;
+        ringFrame = frameIndex;
     }
 
-    private BufferedImage prepareImage (double percentage, Fading.Fade fade) {
+    private void drawColumn(int ringColumn, int frame) {
+        boolean inRange = frame >= 0 && frame < spectrogram.frames();
+        for (int y = 0; y < height; y++) {
+            int color = palette[0];
+            if (inRange) {
+                float power = 0;
+                for (int bin = rowFirstBin[y]; bin < rowLastBin[y]; bin++) {
+                    power = Math.max(power, spectrogram.power(frame, bin));
+                }
+                color = palette[level(power)];
+            }
+            ring[y * width + ringColumn] = color;
+        }
+    }
 
-        int linesToRender;
-        if(percentage > 1 || percentage < 0) {
-            linesToRender = canvas.imageBounds().width;
-        } else {
-            linesToRender = (int)(canvas.imageBounds().width * percentage);
+    //palette entry of a power value, a binary search over the precomputed logarithmic thresholds
+    private int level(float power) {
+        if (power <= 0 || power < thresholds[0]) {
+            return 0;
         }
+        int level = Arrays.binarySearch(thresholds, power);
+        return level >= 0 ? level : -level - 2;
+    }
 
-        BufferedImage image = new BufferedImage(canvas.imageBounds().width, canvas.imageBounds().height, BufferedImage.TYPE_INT_RGB);
-        render(
-                prepareCanvas(image),
-                linesToRender,
-                fade
-        ).dispose();
-        return image;
+    //background through the canvas' initial color up to the peak color
+    private static int[] palette(Color low, Color middle, Color high) {
+        int[] palette = new int[PALETTE_SIZE];
+        int half = PALETTE_SIZE / 2;
+        for (int level = 0; level < PALETTE_SIZE; level++) {
+            Color from = level < half ? low : middle;
+            Color to = level < half ? middle : high;
+            double position = level < half ? (double) level / half : (double) (level - half) / (PALETTE_SIZE - 1 - half);
+            palette[level] = 0xFF000000
+                    | (int) (from.getRed() + (to.getRed() - from.getRed()) * position) << 16
+                    | (int) (from.getGreen() + (to.getGreen() - from.getGreen()) * position) << 8
+                    | (int) (from.getBlue() + (to.getBlue() - from.getBlue()) * position);
+        }
+        return palette;
     }
 }
@@ -0,0 +1,24 @@
+package com.kaymlyn.audiovisualizer.audio.power;
+
+/**
+ * Power of every frequency bin of every STFT frame, stored frame major in a single array. Bin b of a frame covers the
+ * frequency {@code b * sampleRate / windowSize}.
+ */
+public record Spectrogram(int frames, int bins, float sampleRate, int hop, float[] power) {
+
+    public float power(int frame, int bin) {
+        return power[frame * bins + bin];
+    }
+
+    public double frequency(int bin) {
+        return (double) bin * sampleRate / ((bins - 1) * 2);
+    }
+
+    public float maxPower() {
+        float max = 0;
+        for (float value : power) {
+            max = Math.max(max, value);
+        }
+        return max;
+    }
+}
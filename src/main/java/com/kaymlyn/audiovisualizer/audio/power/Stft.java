@@ -0,0 +1,132 @@
+package com.kaymlyn.audiovisualizer.audio.power;
+
+import com.kaymlyn.audiovisualizer.audio.SampleStore;
+
+import java.util.stream.IntStream;
+
+/**
+ * Short-time Fourier transform with a configurable window, window size and hop.
+ * <p>
+ * Frames are independent, so they are transformed in parallel. Every worker thread reuses its own pair of FFT buffers,
+ * nothing is allocated per frame and the result is written straight into the spectrogram's power array.
+ */
+public final class Stft {
+
+    public static final Stft DEFAULT = new Stft(WindowFunction.HANN, 2048, 512);
+
+    private final WindowFunction windowFunction;
+    private final int size;
+    private final int hop;
+    private final double[] window;
+    private final double gain;
+    private final Fft fft;
+    private final ThreadLocal<double[][]> buffers;
+
+    public Stft(WindowFunction windowFunction, int size, int hop) {
+        if (hop < 1) {
+            throw new IllegalArgumentException("Hop must be positive.");
+        }
+        this.windowFunction = windowFunction;
+        this.size = size;
+        this.hop = hop;
+        this.fft = new Fft(size);
+        this.window = windowFunction.coefficients(size);
+        this.buffers = ThreadLocal.withInitial(() -> new double[2][size]);
+
+        //scales a full scale sine back to an amplitude of 1 whatever the window
+        double sum = 0;
+        for (double coefficient : window) {
+            sum += coefficient;
+        }
+        this.gain = 2 / sum;
+    }
+
+    public WindowFunction windowFunction() {
+        return windowFunction;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int hop() {
+        return hop;
+    }
+
+    public int bins() {
+        return size / 2 + 1;
+    }
+
+    //frames needed to cover length samples, the last frame is zero padded
+    public int frameCount(long length) {
+        return length <= size ? 1 : (int) (1 + (length - size + hop - 1) / hop);
+    }
+
+    public Spectrogram transform(double[] signal, int length, float sampleRate) {
+        int frames = frameCount(length);
+        float[] power = new float[frames * bins()];
+        IntStream.range(0, frames)
+                .parallel()
+                .forEach(frame -> {
+                    double[][] buffer = buffers.get();
+                    transformFrame(signal, length, (long) frame * hop, buffer[0], buffer[1], power, frame * bins());
+                });
+        return new Spectrogram(frames, bins(), sampleRate, hop, power);
+    }
+
+    //transforms the store's audio mixed down to mono, every frame reads its window straight from the store
+    public Spectrogram transform(SampleStore store) {
+        long length = store.frames();
+        int channels = store.channels();
+        int frames = frameCount(length);
+        float[] power = new float[frames * bins()];
+        ThreadLocal<int[]> samples = ThreadLocal.withInitial(() -> new int[size * channels]);
+        IntStream.range(0, frames)
+                .parallel()
+                .forEach(frame -> {
+                    double[][] buffer = buffers.get();
+                    int[] interleaved = samples.get();
+                    long start = (long) frame * hop;
+                    int read = store.read(start * channels, interleaved, 0, interleaved.length) / channels;
+                    double[] re = buffer[0];
+                    for (int i = 0, sample = 0; i < size; i++) {
+                        double mixed = 0;
+                        if (i < read) {
+                            for (int channel = 0; channel < channels; channel++) {
+                                mixed += interleaved[sample++];
+                            }
+                            mixed /= channels;
+                        }
+                        re[i] = mixed;
+                    }
+                    transformWindow(re, buffer[1], power, frame * bins());
+                });
+        return new Spectrogram(frames, bins(), store.format().getSampleRate(), hop, power);
+    }
+
+    /**
+     * Transforms the window of signal starting at start, writing the power of every bin into out at outOffset.
+     * Samples past length are treated as silence. re and im are scratch buffers of at least size entries.
+     */
+    public void transformFrame(double[] signal, int length, long start, double[] re, double[] im, float[] out, int outOffset) {
+        for (int i = 0; i < size; i++) {
+            long index = start + i;
+            re[i] = index < length ? signal[(int) index] : 0;
+        }
+        transformWindow(re, im, out, outOffset);
+    }
+
+    //windows the size samples in re and writes the power of every bin into out at outOffset
+    private void transformWindow(double[] re, double[] im, float[] out, int outOffset) {
+        for (int i = 0; i < size; i++) {
+            re[i] *= window[i];
+            im[i] = 0;
+        }
+        fft.transform(re, im);
+        for (int bin = 0; bin < bins(); bin++) {
+            double real = re[bin] * gain;
+            double imaginary = im[bin] * gain;
+            out[outOffset + bin] = (float) (real * real + imaginary * imaginary);
+        }
+    }
+}
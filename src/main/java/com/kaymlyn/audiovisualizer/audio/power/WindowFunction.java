@@ -0,0 +1,28 @@
+package com.kaymlyn.audiovisualizer.audio.power;
+
+//Tapering applied to every STFT frame before it is transformed.
+public enum WindowFunction {
+    HANN(0.5, 0.5, 0),
+    HAMMING(0.54, 0.46, 0),
+    BLACKMAN(0.42, 0.5, 0.08);
+
+    private final double a0;
+    private final double a1;
+    private final double a2;
+
+    WindowFunction(double a0, double a1, double a2) {
+        this.a0 = a0;
+        this.a1 = a1;
+        this.a2 = a2;
+    }
+
+    //periodic window coefficients, which overlap-add evenly at the usual hop sizes
+    public double[] coefficients(int size) {
+        double[] window = new double[size];
+        for (int i = 0; i < size; i++) {
+            double phase = 2 * Math.PI * i / size;
+            window[i] = a0 - a1 * Math.cos(phase) + a2 * Math.cos(2 * phase);
+        }
+        return window;
+    }
+}
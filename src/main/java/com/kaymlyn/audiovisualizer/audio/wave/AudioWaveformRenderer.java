@@ -1,64 +1,67 @@
 package com.kaymlyn.audiovisualizer.audio.wave;
 
 import com.kaymlyn.audiovisualizer.audio.Renderer;
+import com.kaymlyn.audiovisualizer.audio.StaticLayer;
+import com.kaymlyn.audiovisualizer.image.ImageOutput;
+import com.kaymlyn.audiovisualizer.metrics.RenderEvent;
 
-import javax.imageio.ImageIO;
 import java.awt.*;
-import java.awt.geom.Line2D;
-import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.util.List;
 
 import static com.kaymlyn.audiovisualizer.audio.AudioProcessor.InfoBlock;
 import static com.kaymlyn.audiovisualizer.audio.AudioProcessor.Canvas;
 
+/**
+ * Renders a window of a PeakPyramid as a waveform image. renderToImage keeps no state between calls and never modifies
+ * the peaks, so one renderer can render different frames from several threads at once once it is configured.
+ */
 public class AudioWaveformRenderer implements Renderer, Fading<AudioWaveformRenderer> {
 
     private final Canvas canvas;
     private final InfoBlock info;
-    private final List<Line2D.Double> rawWaveform;
-    private Fade globalFade;
+    private final PeakPyramid peaks;
+    private volatile Fade globalFade;
+    private volatile double framesPerColumn;
+    private volatile Rasterization rasterization = Rasterization.DIRECT;
+    private volatile ImageOutput output = ImageOutput.DEFAULT;
 
-    public AudioWaveformRenderer(List<Line2D.Double> waveformData, Canvas canvas, InfoBlock info, Fade fade) {
+    //DIRECT writes the columns straight into the image's pixel array, JAVA2D draws them through Graphics2D. Both
+    //produce the same image.
+    public enum Rasterization { JAVA2D, DIRECT }
 
-        this.rawWaveform = waveformData;
+    public AudioWaveformRenderer(PeakPyramid peaks, Canvas canvas, InfoBlock info, Fade fade) {
+
+        this.peaks = peaks;
         this.canvas = canvas;
         this.info = info;
         this.globalFade = fade;
+        //by default the whole track is fit onto the canvas
+        this.framesPerColumn = Math.max(1, (double) peaks.frameCount() / canvas.imageBounds().width);
     }
 
-    public AudioWaveformRenderer(List<Line2D.Double> waveformData, Canvas canvas, InfoBlock info) {
-        this(waveformData,canvas,info,new Fade(0,0,0));
+    public AudioWaveformRenderer(PeakPyramid peaks, Canvas canvas, InfoBlock info) {
+        this(peaks,canvas,info,new Fade(0,0,0));
     }
 
-    //this method is unintelligent, need to add a way to change the image format, this is handled currently by a magic
-    //string, I need to find out if there is an enumeration that provides all the available image formats.
-    //this will need to be refactored when video is generated.
+    //the image format follows the file extension unless the ImageOutput fixes one
     @Override
     public void renderToFile(File imageFile) throws IOException {
         renderToFile(imageFile,canvas.imageBounds().width);
     }
 
     public void renderToFile(File imageFile,int index) throws IOException {
-
-        if(!imageFile.getParentFile().exists()){
-            if(!imageFile.mkdirs()) {
-                throw new IOException("Unable to create file to store image.");
-            }
-        }
-        prepareImage(index);
-        ImageIO.write(
-                renderToImage(index),
-                "png",
-                imageFile
-        );
+        output.write(renderToImage(index), imageFile);
     }
 
     @Override
     public BufferedImage renderToImage(int frameIndex) {
-        return prepareImage(frameIndex);
+        RenderEvent event = new RenderEvent("waveform", frameIndex, canvas.imageBounds().width, canvas.imageBounds().height);
+        event.start();
+        BufferedImage image = prepareImage(frameIndex);
+        event.finish(1, (long) image.getWidth() * image.getHeight() * Integer.BYTES);
+        return image;
     }
 
     //TODO: actual documentation
@@ -68,73 +71,139 @@ public class AudioWaveformRenderer implements Renderer, Fading<AudioWaveformRend
         return this;
     }
 
-    private Graphics2D render(Graphics2D graphics, int cyclicalCanvasLength, int offset, Fade fadeRate) {
+    //sets how many audio frames are summarized by each column of the canvas.
+    public AudioWaveformRenderer withZoom(double framesPerColumn) {
+        if (framesPerColumn <= 0) {
+            throw new IllegalArgumentException("Frames per column must be positive.");
+        }
+        this.framesPerColumn = framesPerColumn;
+        return this;
+    }
 
+    /**
+     * A stateful view of this renderer for rendering consecutive frames in order, as animations do. Each frame starts
+     * from the previous one shifted by the scroll distance, so only newly exposed columns are read from the peaks and
+     * only pixels whose color actually changes are written. Its images are identical to this renderer's.
+     */
+    public ScrollingWaveformRenderer scrolling() {
+        return new ScrollingWaveformRenderer(this);
+    }
 
-        //preserve starting color for additional renders.
-        Color currentColor = new Color(
-                (canvas.initialColor().getRed() + canvas.shift().getRed()) % 255,
-                (canvas.initialColor().getGreen() + canvas.shift().getGreen()) % 255,
-                (canvas.initialColor().getBlue() + canvas.shift().getBlue()) % 255
-        );
+    /**
+     * A view of this renderer that splits the canvas into fixed width tiles rendered in parallel, for canvases too wide
+     * to hold as one image. Tiles can be written as separate images, as a zoomable tile set, or streamed into one PNG.
+     */
+    public TiledWaveformRenderer tiled() {
+        return new TiledWaveformRenderer(this);
+    }
 
-        graphics.setColor(currentColor);
+    //selects the encoder and its settings used by renderToFile
+    public AudioWaveformRenderer withOutput(ImageOutput output) {
+        this.output = output;
+        return this;
+    }
 
-        for (int i = 0 ; i < rawWaveform.size() && i < cyclicalCanvasLength; i++) {
-            currentColor = new Color((currentColor.getRed() + canvas.shift().getRed()) % 255,
-                    (currentColor.getGreen() + canvas.shift().getGreen()) % 255,
-                    (currentColor.getBlue() + canvas.shift().getBlue()) % 255);
+    //selects how the waveform columns are drawn onto the canvas.
+    public AudioWaveformRenderer withRasterization(Rasterization rasterization) {
+        this.rasterization = rasterization;
+        return this;
+    }
 
-            int fadeScale = offset%cyclicalCanvasLength - i;
-            if(fadeScale < 0) {
-                fadeScale = offset%cyclicalCanvasLength + cyclicalCanvasLength - i;
+    //the canvas shows the columns leading up to offset, i.e. columns [offset - cyclicalCanvasLength, offset)
+    private Graphics2D render(Graphics2D graphics, int cyclicalCanvasLength, int offset, Fade fadeRate) {
+        ColumnSpans spans = computeSpans(cyclicalCanvasLength, offset, fadeRate);
+        for (int i = 0; i < spans.count(); i++) {
+            //empty columns lie outside the audio
+            if (spans.top()[i] <= spans.bottom()[i]) {
+                graphics.setColor(new Color(spans.rgb()[i]));
+                graphics.drawLine(i, spans.top()[i], i, spans.bottom()[i]);
             }
-
-            graphics.setColor(new Color(
-                    fadeComponent(currentColor.getRed(), canvas.globalBackground().getRed(), fadeRate.redFade(), fadeScale, canvas.imageBounds().width),
-                    fadeComponent(currentColor.getGreen(), canvas.globalBackground().getGreen(), fadeRate.greenFade(), fadeScale, canvas.imageBounds().width),
-                    fadeComponent(currentColor.getBlue(), canvas.globalBackground().getBlue(), fadeRate.blueFade(), fadeScale, canvas.imageBounds().width)
-            ));
-
-            Line2D.Double line = rawWaveform.get(offset - cyclicalCanvasLength + (i*60));
-            line.setLine(i, line.y1, i, line.y2);
-            graphics.draw(line);
         }
         return graphics;
     }
 
-    private Graphics2D prepareCanvas(BufferedImage image) {
-        Graphics2D g2 = image.createGraphics();
+    //works out the span and packed color of every column without touching the image
+    private ColumnSpans computeSpans(int cyclicalCanvasLength, int offset, Fade fadeRate) {
+        ColumnSpans spans = new ColumnSpans(cyclicalCanvasLength);
+        computeGeometry(offset - cyclicalCanvasLength, framesPerColumn, spans, 0, cyclicalCanvasLength);
+        computeColors(cyclicalCanvasLength, offset, fadeRate, spans.rgb());
+        return spans;
+    }
+
+    //top and bottom of columns [from, to) of spans, where column 0 of spans is column firstColumn of the audio
+    void computeGeometry(long firstColumn, double framesPerColumn, ColumnSpans spans, int from, int to) {
+        int[] columnMin = new int[to - from];
+        int[] columnMax = new int[to - from];
+        peaks.columnsAt(firstColumn + from, framesPerColumn, to - from, columnMin, columnMax, null);
+        for (int i = from; i < to; i++) {
+            if (columnMin[i - from] <= columnMax[i - from]) {
+                spans.top()[i] = toY(columnMax[i - from]);
+                spans.bottom()[i] = toY(columnMin[i - from]);
+            } else {
+                spans.top()[i] = 0;
+                spans.bottom()[i] = -1;
+            }
+        }
+    }
 
-        g2.setBackground(canvas.globalBackground());
-        g2.clearRect(0, 0, canvas.imageBounds().width, canvas.imageBounds().height);
+    //packed color of every column of the canvas, they depend on the column and on the distance to the offset
+    void computeColors(int cyclicalCanvasLength, int offset, Fade fadeRate, int[] rgb) {
+        computeColors(cyclicalCanvasLength, offset, fadeRate, rgb, 0, cyclicalCanvasLength);
+    }
 
-        if(info != null) {
-            FontMetrics fontMetrics = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB)
-                    .getGraphics()
-                    .getFontMetrics(info.infoFont());
-            Rectangle2D stringBounds = fontMetrics.getStringBounds(info.info(), g2);
+    //colors of canvas columns [from, to) only, column from lands at rgb[0]
+    void computeColors(int cyclicalCanvasLength, int offset, Fade fadeRate, int[] rgb, int from, int to) {
+        FadeGradient gradient = FadeGradient.of(canvas, fadeRate, canvas.imageBounds().width);
+        //floorMod keeps offsets before the start of the audio from producing negative fade scales
+        int cursor = Math.floorMod(offset, cyclicalCanvasLength);
+        for (int i = from ; i < to; i++) {
+            int fadeScale = cursor - i;
+            if(fadeScale < 0) {
+                fadeScale = cursor + cyclicalCanvasLength - i;
+            }
+            rgb[i - from] = gradient.rgb(i, fadeScale);
+        }
+    }
 
-            g2.setColor(info.infoInsetColor());
-            g2.fillRect(0, canvas.imageBounds().height - (int) (stringBounds.getHeight()), (int) stringBounds.getWidth() + 4, canvas.imageBounds().height + (int) stringBounds.getHeight() + 4);
-            g2.setColor(Color.BLUE);
-            g2.setFont(info.infoFont());
-            g2.drawString(info.info(), 3, canvas.imageBounds().height - 4);
+    //scales a sample so the loudest sample of the audio reaches the edge of the canvas
+    private int toY(int sample) {
+        int half = canvas.imageBounds().height / 2;
+        if (peaks.peak() == 0) {
+            return half;
         }
-        return g2;
+        //the negative peak, and Integer.MIN_VALUE beyond it, would land on the row below the canvas
+        int y = (int) (half - (long) sample * half / peaks.peak());
+        return Math.max(0, Math.min(y, canvas.imageBounds().height - 1));
+    }
+
+    PeakPyramid peaks() {
+        return peaks;
+    }
+
+    Canvas canvas() {
+        return canvas;
+    }
+
+    InfoBlock info() {
+        return info;
+    }
+
+    Fade fade() {
+        return globalFade;
+    }
+
+    double framesPerColumn() {
+        return framesPerColumn;
     }
 
     private BufferedImage prepareImage (int offset) {
 
-        BufferedImage image = new BufferedImage(canvas.imageBounds().width,
-                canvas.imageBounds().height,
-                BufferedImage.TYPE_INT_RGB);
-        render(
-                prepareCanvas(image),
-                canvas.imageBounds().width,
-                offset,
-                globalFade
-        ).dispose();
+        BufferedImage image = StaticLayer.of(canvas, info).newImage();
+        if (rasterization == Rasterization.JAVA2D) {
+            render(image.createGraphics(), canvas.imageBounds().width, offset, globalFade).dispose();
+        } else {
+            WaveformRasterizer.draw(image, computeSpans(canvas.imageBounds().width, offset, globalFade));
+        }
         return image;
     }
 }
@@ -0,0 +1,14 @@
+package com.kaymlyn.audiovisualizer.audio.wave;
+
+//Vertical span (inclusive, top to bottom) and packed RGB color of every column of a waveform image. A column whose
+//top lies below its bottom is empty.
+record ColumnSpans(int[] top, int[] bottom, int[] rgb) {
+
+    ColumnSpans(int count) {
+        this(new int[count], new int[count], new int[count]);
+    }
+
+    int count() {
+        return rgb.length;
+    }
+}
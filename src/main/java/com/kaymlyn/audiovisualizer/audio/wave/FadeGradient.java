@@ -0,0 +1,119 @@
+package com.kaymlyn.audiovisualizer.audio.wave;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.kaymlyn.audiovisualizer.audio.AudioProcessor.Canvas;
+import static com.kaymlyn.audiovisualizer.audio.wave.Fading.Fade;
+
+/**
+ * Packed RGB colors of every (column, fadeScale) pair for one Canvas and Fade.
+ * <p>
+ * The color of a column is the canvas' initial color shifted once per column, modulo 255, so the walk repeats every
+ * {@code period} columns (at most 255). Past the point where every fading component has reached the background,
+ * larger fade scales give the same color, so only {@code saturation + 1} fade scales are stored. Neither depends on the
+ * audio, so the table is built once per style and shared by every frame rendered with it.
+ */
+final class FadeGradient {
+
+    //gradients bigger than this are not tabulated, the colors are worked out from the walk per lookup instead
+    private static final int MAX_TABLE_SIZE = 1 << 20;
+    private static final int MAX_CACHED = 64;
+
+    private static final Map<Key, FadeGradient> CACHE = new ConcurrentHashMap<>();
+
+    private record Key(Canvas canvas, Fade fade, int length) { }
+
+    private final Canvas canvas;
+    private final Fade fade;
+    private final int length;
+    private final int period;
+    private final int saturation;
+    //packed base color of the first period columns, before fading
+    private final int[] walk;
+    //period rows of saturation + 1 faded colors, or null when too large
+    private final int[] table;
+
+    private FadeGradient(Canvas canvas, Fade fade, int length) {
+        this.canvas = canvas;
+        this.fade = fade;
+        this.length = length;
+        this.period = lcm(lcm(period(canvas.shift().getRed()), period(canvas.shift().getGreen())),
+                period(canvas.shift().getBlue()));
+        this.saturation = saturation(fade, length);
+
+        walk = new int[period];
+        for (int i = 0; i < period; i++) {
+            //column i is shifted i + 2 times from the initial color
+            walk[i] = (canvas.initialColor().getRed() + canvas.shift().getRed() * (i + 2)) % 255 << 16
+                    | (canvas.initialColor().getGreen() + canvas.shift().getGreen() * (i + 2)) % 255 << 8
+                    | (canvas.initialColor().getBlue() + canvas.shift().getBlue() * (i + 2)) % 255;
+        }
+
+        if ((long) period * (saturation + 1) <= MAX_TABLE_SIZE) {
+            table = new int[period * (saturation + 1)];
+            for (int i = 0; i < period; i++) {
+                for (int fadeScale = 0; fadeScale <= saturation; fadeScale++) {
+                    table[i * (saturation + 1) + fadeScale] = faded(walk[i], fadeScale);
+                }
+            }
+        } else {
+            table = null;
+        }
+    }
+
+    static FadeGradient of(Canvas canvas, Fade fade, int length) {
+        if (CACHE.size() > MAX_CACHED) {
+            CACHE.clear();
+        }
+        return CACHE.computeIfAbsent(new Key(canvas, fade, length), key -> new FadeGradient(key.canvas(), key.fade(), key.length()));
+    }
+
+    int rgb(int column, int fadeScale) {
+        int fadeIndex = Math.min(fadeScale, saturation);
+        if (table != null) {
+            return table[(column % period) * (saturation + 1) + fadeIndex];
+        }
+        return faded(walk[column % period], fadeIndex);
+    }
+
+    private int faded(int rgb, int fadeScale) {
+        return Fading.fade(rgb >> 16 & 255, canvas.globalBackground().getRed(), fade.redFade(), fadeScale, length) << 16
+                | Fading.fade(rgb >> 8 & 255, canvas.globalBackground().getGreen(), fade.greenFade(), fadeScale, length) << 8
+                | Fading.fade(rgb & 255, canvas.globalBackground().getBlue(), fade.blueFade(), fadeScale, length);
+    }
+
+    //columns until a color component shifting by shift per column comes back around
+    private static int period(int shift) {
+        return 255 / gcd(Math.floorMod(shift, 255), 255);
+    }
+
+    //the fade scale from which every component is either fully faded or not fading at all
+    private static int saturation(Fade fade, int length) {
+        double[] rates = {fade.redFade(), fade.greenFade(), fade.blueFade()};
+        int saturation = 0;
+        for (double rate : rates) {
+            if (rate < 0) {
+                //negative fades never reach the background
+                return length;
+            }
+            if (rate > 0) {
+                //evaluated exactly like Fading.fade so rounding cannot put the cut off one scale early
+                long scale = (long) Math.floor(length / rate);
+                while (scale < length && rate * scale / length <= 1) {
+                    scale++;
+                }
+                saturation = (int) Math.max(saturation, Math.min(length, scale));
+            }
+        }
+        return saturation;
+    }
+
+    private static int gcd(int a, int b) {
+        return b == 0 ? a : gcd(b, a % b);
+    }
+
+    private static int lcm(int a, int b) {
+        return a / gcd(a, b) * b;
+    }
+}
@@ -9,6 +9,10 @@ public interface  Fading<T extends Renderer> {
     T withFade(Fade fade);
 
     default int fadeComponent(int raw, int target, double fadeRate, int fadePoint, int canvasLength) {
+        return fade(raw, target, fadeRate, fadePoint, canvasLength);
+    }
+
+    static int fade(int raw, int target, double fadeRate, int fadePoint, int canvasLength) {
         // a fade rate of 1 means a fade that stretches the whole canvas.
         // a fade rate of .5 means a fade that is complete after halfway across the canvas
         // a fade rate of 2 means a fade that would be complete after double the length of the canvas
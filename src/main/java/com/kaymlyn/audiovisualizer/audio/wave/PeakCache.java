@@ -0,0 +1,232 @@
+package com.kaymlyn.audiovisualizer.audio.wave;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * On-disk cache of computed {@link PeakPyramid}s, one file per key.
+ * <p>
+ * A key is the SHA-256 of the audio file's canonical path, size and modification time, its {@link AudioFormat} and
+ * the pyramid's bucket size, so a lookup neither reads nor decodes the audio. Files are written once and read back
+ * through a memory mapping. Every file starts with a header holding a magic number, the format version and the key,
+ * and ends with a CRC32 of the payload; a file failing any of these checks is treated as a miss and deleted.
+ * <p>
+ * The directory is kept under maxBytes by evicting the least recently used files after every write. A cache may be
+ * shared between threads; entries vanishing under a reader are treated as misses.
+ * <pre>
+ * int magic, int version, byte[32] key,
+ * int baseBucketFrames, int channels, long frameCount, int levels, int[levels] bucketCounts,
+ * per level: int[] min, int[] max, float[] energy,
+ * long crc32
+ * </pre>
+ */
+public final class PeakCache {
+
+    public static final int VERSION = 2;
+
+    private static final int MAGIC = 0x4156504B; //AVPK
+    private static final String EXTENSION = ".peaks";
+    private static final int KEY_LENGTH = 32;
+
+    private final Path directory;
+    private final long maxBytes;
+
+    public PeakCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    //the file counts as unchanged while its canonical path, size and modification time are, so a key costs a stat
+    public static byte[] key(Path audioFile, AudioFormat format, int baseBucketFrames) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required by every Java platform.", e);
+        }
+
+        Path canonical = audioFile.toRealPath();
+        BasicFileAttributes attributes = Files.readAttributes(canonical, BasicFileAttributes.class);
+        digest.update(canonical.toString().getBytes(StandardCharsets.UTF_8));
+        digest.update(ByteBuffer.allocate(2 * Long.BYTES)
+                .putLong(0, attributes.size())
+                .putLong(Long.BYTES, attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS)));
+        digest.update(format.toString().getBytes(StandardCharsets.UTF_8));
+        digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(0, baseBucketFrames));
+        return digest.digest();
+    }
+
+    //returns the cached pyramid, or null when there is no valid entry for the key
+    public PeakPyramid read(byte[] key) throws IOException {
+        Path file = fileFor(key);
+        if (!Files.exists(file)) {
+            return null;
+        }
+
+        PeakPyramid peaks;
+        try {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                peaks = decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), key);
+            }
+            if (peaks == null) {
+                Files.deleteIfExists(file);
+                return null;
+            }
+            //refreshes the entry for eviction
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (NoSuchFileException e) {
+            //evicted by another thread or process in the meantime
+            return null;
+        }
+        return peaks;
+    }
+
+    public void write(byte[] key, PeakPyramid peaks) throws IOException {
+        Files.createDirectories(directory);
+
+        int levels = peaks.levels();
+        long size = 4 + 4 + KEY_LENGTH + 4 + 4 + 8 + 4 + 4L * levels + 8;
+        for (int level = 0; level < levels; level++) {
+            size += (4L + 4L + 4L) * peaks.minLevel(level).length;
+        }
+
+        Path temporary = Files.createTempFile(directory, "peaks", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                buffer.putInt(MAGIC).putInt(VERSION).put(key);
+                int payloadStart = buffer.position();
+                buffer.putInt(peaks.baseBucketFrames())
+                        .putInt(peaks.channels())
+                        .putLong(peaks.frameCount())
+                        .putInt(levels);
+                for (int level = 0; level < levels; level++) {
+                    buffer.putInt(peaks.minLevel(level).length);
+                }
+                for (int level = 0; level < levels; level++) {
+                    int buckets = peaks.minLevel(level).length;
+                    buffer.asIntBuffer().put(peaks.minLevel(level));
+                    buffer.position(buffer.position() + 4 * buckets);
+                    buffer.asIntBuffer().put(peaks.maxLevel(level));
+                    buffer.position(buffer.position() + 4 * buckets);
+                    buffer.asFloatBuffer().put(peaks.energyLevel(level));
+                    buffer.position(buffer.position() + 4 * buckets);
+                }
+                CRC32 crc = new CRC32();
+                crc.update(buffer.slice(payloadStart, buffer.position() - payloadStart));
+                buffer.putLong(crc.getValue());
+                buffer.force();
+            }
+            Files.move(temporary, fileFor(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        evict();
+    }
+
+    //drops the least recently used entries until the directory fits in maxBytes
+    public synchronized void evict() throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+
+        record Entry(Path file, long size, FileTime lastUsed) { }
+        List<Entry> entries = new ArrayList<>();
+        long total = 0;
+        try (var files = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for (Path file : files) {
+                try {
+                    Entry entry = new Entry(file, Files.size(file), Files.getLastModifiedTime(file));
+                    entries.add(entry);
+                    total += entry.size();
+                } catch (NoSuchFileException e) {
+                    //removed since the directory was listed
+                }
+            }
+        }
+
+        entries.sort(Comparator.comparing(Entry::lastUsed));
+        for (int i = 0; i < entries.size() && total > maxBytes; i++) {
+            Files.deleteIfExists(entries.get(i).file());
+            total -= entries.get(i).size();
+        }
+    }
+
+    private Path fileFor(byte[] key) {
+        return directory.resolve(HexFormat.of().formatHex(key) + EXTENSION);
+    }
+
+    //validates and parses a mapped cache file, returning null if it is stale or damaged
+    private static PeakPyramid decode(ByteBuffer buffer, byte[] key) {
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+            byte[] storedKey = new byte[KEY_LENGTH];
+            buffer.get(storedKey);
+            if (!MessageDigest.isEqual(storedKey, key)) {
+                return null;
+            }
+
+            int payloadStart = buffer.position();
+            int baseBucketFrames = buffer.getInt();
+            int channels = buffer.getInt();
+            long frameCount = buffer.getLong();
+            int levels = buffer.getInt();
+            if (baseBucketFrames < 1 || channels < 1 || levels < 1) {
+                return null;
+            }
+
+            int[] buckets = new int[levels];
+            for (int level = 0; level < levels; level++) {
+                buckets[level] = buffer.getInt();
+                if (buckets[level] < 0 || buckets[level] > buffer.remaining() / 12) {
+                    return null;
+                }
+            }
+            int[][] min = new int[levels][];
+            int[][] max = new int[levels][];
+            float[][] energy = new float[levels][];
+            for (int level = 0; level < levels; level++) {
+                min[level] = new int[buckets[level]];
+                max[level] = new int[buckets[level]];
+                energy[level] = new float[buckets[level]];
+                buffer.asIntBuffer().get(min[level]);
+                buffer.position(buffer.position() + 4 * buckets[level]);
+                buffer.asIntBuffer().get(max[level]);
+                buffer.position(buffer.position() + 4 * buckets[level]);
+                buffer.asFloatBuffer().get(energy[level]);
+                buffer.position(buffer.position() + 4 * buckets[level]);
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(buffer.slice(payloadStart, buffer.position() - payloadStart));
+            if (buffer.getLong() != crc.getValue() || buffer.hasRemaining()) {
+                return null;
+            }
+            return new PeakPyramid(baseBucketFrames, channels, frameCount, min, max, energy);
+        } catch (RuntimeException e) {
+            //truncated or otherwise malformed file
+            return null;
+        }
+    }
+}
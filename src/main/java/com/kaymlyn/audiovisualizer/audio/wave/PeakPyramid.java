@@ -0,0 +1,275 @@
+package com.kaymlyn.audiovisualizer.audio.wave;
+
+import com.kaymlyn.audiovisualizer.audio.AudioProcessor;
+
+import java.util.Arrays;
+
+/**
+ * Multi-resolution peak index over decoded audio, kept in primitive arrays.
+ * <p>
+ * Level 0 holds the min, max and energy (sum of squares) of every {@code baseBucketFrames} frames, across all channels.
+ * Energy is summed in double precision but stored as float, which is plenty for an RMS and keeps a bucket at 12 bytes.
+ * Every following level merges pairs of buckets from the level below, so level n covers
+ * {@code baseBucketFrames << n} frames per bucket. Any zoom can then be answered in O(columns) from the closest level,
+ * without touching the samples again.
+ * <p>
+ * The pyramid is filled through {@link #accept(int[], int)} while the audio streams in and must be {@link #finish()
+ * finished} before it is queried. A finished pyramid is never modified and can be shared between renderers.
+ */
+public final class PeakPyramid implements AudioProcessor.SampleConsumer {
+
+    private final int baseBucketFrames;
+    private final int channels;
+
+    private int[][] min;
+    private int[][] max;
+    private float[][] energy;
+    private int baseBuckets;
+    private long frameCount;
+    private int peak;
+    private boolean finished;
+
+    //state of the level 0 bucket currently being filled
+    private int bucketMin = Integer.MAX_VALUE;
+    private int bucketMax = Integer.MIN_VALUE;
+    private double bucketEnergy;
+    private long bucketSamples;
+
+    public PeakPyramid(int baseBucketFrames, int channels) {
+        if (baseBucketFrames < 1 || channels < 1) {
+            throw new IllegalArgumentException("Bucket size and channel count must be positive.");
+        }
+        this.baseBucketFrames = baseBucketFrames;
+        this.channels = channels;
+        this.min = new int[][]{new int[1024]};
+        this.max = new int[][]{new int[1024]};
+        this.energy = new float[][]{new float[1024]};
+    }
+
+    //rebuilds a finished pyramid from previously computed levels, e.g. when reading it back from a cache.
+    PeakPyramid(int baseBucketFrames, int channels, long frameCount, int[][] min, int[][] max, float[][] energy) {
+        this.baseBucketFrames = baseBucketFrames;
+        this.channels = channels;
+        this.frameCount = frameCount;
+        this.min = min;
+        this.max = max;
+        this.energy = energy;
+        this.baseBuckets = min[0].length;
+        for (int i = 0; i < baseBuckets; i++) {
+            peak = Math.max(peak, Math.max(magnitude(min[0][i]), magnitude(max[0][i])));
+        }
+        this.finished = true;
+    }
+
+    @Override
+    public void accept(int[] samples, int length) {
+        if (finished) {
+            throw new IllegalStateException("Peak pyramid is already finished.");
+        }
+        long samplesPerBucket = (long) baseBucketFrames * channels;
+        int i = 0;
+        while (i < length) {
+            int start = i;
+            int end = (int) Math.min(length, i + samplesPerBucket - bucketSamples);
+            int bMin = bucketMin;
+            int bMax = bucketMax;
+            double bEnergy = bucketEnergy;
+            for (; i < end; i++) {
+                int sample = samples[i];
+                bMin = Math.min(bMin, sample);
+                bMax = Math.max(bMax, sample);
+                bEnergy += (double) sample * sample;
+            }
+            bucketSamples += end - start;
+            bucketMin = bMin;
+            bucketMax = bMax;
+            bucketEnergy = bEnergy;
+            if (bucketSamples == samplesPerBucket) {
+                closeBucket();
+            }
+        }
+    }
+
+    private void closeBucket() {
+        if (baseBuckets == min[0].length) {
+            int size = baseBuckets * 2;
+            min[0] = Arrays.copyOf(min[0], size);
+            max[0] = Arrays.copyOf(max[0], size);
+            energy[0] = Arrays.copyOf(energy[0], size);
+        }
+        min[0][baseBuckets] = bucketMin;
+        max[0][baseBuckets] = bucketMax;
+        energy[0][baseBuckets] = (float) bucketEnergy;
+        baseBuckets++;
+        frameCount += bucketSamples / channels;
+        peak = Math.max(peak, Math.max(magnitude(bucketMin), magnitude(bucketMax)));
+
+        bucketMin = Integer.MAX_VALUE;
+        bucketMax = Integer.MIN_VALUE;
+        bucketEnergy = 0;
+        bucketSamples = 0;
+    }
+
+    //Math.abs(Integer.MIN_VALUE) stays negative, clamp it to the largest magnitude instead
+    private static int magnitude(int sample) {
+        return sample == Integer.MIN_VALUE ? Integer.MAX_VALUE : Math.abs(sample);
+    }
+
+    //closes the trailing partial bucket and builds every coarser level.
+    public PeakPyramid finish() {
+        if (finished) {
+            return this;
+        }
+        if (bucketSamples >= channels) {
+            bucketSamples -= bucketSamples % channels;
+            closeBucket();
+        }
+        finished = true;
+
+        int levels = 1;
+        for (int buckets = baseBuckets; buckets > 1; buckets = (buckets + 1) / 2) {
+            levels++;
+        }
+        int[][] levelMin = new int[levels][];
+        int[][] levelMax = new int[levels][];
+        float[][] levelEnergy = new float[levels][];
+        levelMin[0] = Arrays.copyOf(min[0], baseBuckets);
+        levelMax[0] = Arrays.copyOf(max[0], baseBuckets);
+        levelEnergy[0] = Arrays.copyOf(energy[0], baseBuckets);
+
+        for (int level = 1; level < levels; level++) {
+            int[] lowerMin = levelMin[level - 1];
+            int[] lowerMax = levelMax[level - 1];
+            float[] lowerEnergy = levelEnergy[level - 1];
+            int buckets = (lowerMin.length + 1) / 2;
+            levelMin[level] = new int[buckets];
+            levelMax[level] = new int[buckets];
+            levelEnergy[level] = new float[buckets];
+            for (int b = 0; b < buckets; b++) {
+                int left = 2 * b;
+                int right = Math.min(left + 1, lowerMin.length - 1);
+                levelMin[level][b] = Math.min(lowerMin[left], lowerMin[right]);
+                levelMax[level][b] = Math.max(lowerMax[left], lowerMax[right]);
+                levelEnergy[level][b] = (float) ((double) lowerEnergy[left] + (right == left ? 0 : lowerEnergy[right]));
+            }
+        }
+        min = levelMin;
+        max = levelMax;
+        energy = levelEnergy;
+        return this;
+    }
+
+    public long frameCount() {
+        return frameCount;
+    }
+
+    public int channels() {
+        return channels;
+    }
+
+    public int baseBucketFrames() {
+        return baseBucketFrames;
+    }
+
+    public int levels() {
+        return min.length;
+    }
+
+    //heap held by the levels
+    public long byteSize() {
+        long bytes = 0;
+        for (int level = 0; level < min.length; level++) {
+            bytes += (long) min[level].length * Integer.BYTES + (long) max[level].length * Integer.BYTES
+                    + (long) energy[level].length * Float.BYTES;
+        }
+        return bytes;
+    }
+
+    //heap a pyramid of frameCount frames will hold, the levels above the base together about as large as the base
+    public static long byteSizeFor(long frameCount, int baseBucketFrames) {
+        return 2 * (frameCount / baseBucketFrames + 1) * (Integer.BYTES + Integer.BYTES + Float.BYTES);
+    }
+
+    //largest absolute sample value in the audio, used to normalize the pyramid to a canvas.
+    public int peak() {
+        return peak;
+    }
+
+    int[] minLevel(int level) {
+        return min[level];
+    }
+
+    int[] maxLevel(int level) {
+        return max[level];
+    }
+
+    float[] energyLevel(int level) {
+        return energy[level];
+    }
+
+    /**
+     * Summarizes count columns of framesPerColumn frames each, the first one starting at startFrame. Columns that fall
+     * outside the audio are left empty, which is marked by a min greater than the max.
+     *
+     * @param rmsOut may be null when the RMS is not needed.
+     */
+    public void columns(double startFrame, double framesPerColumn, int count, int[] minOut, int[] maxOut, double[] rmsOut) {
+        columns(startFrame, 0, framesPerColumn, count, minOut, maxOut, rmsOut);
+    }
+
+    /**
+     * Like {@link #columns}, but on a fixed grid where column k always starts at frame k * framesPerColumn. A column is
+     * then summarized the same way whichever window it is queried in, so windows can be assembled from pieces.
+     */
+    public void columnsAt(long firstColumn, double framesPerColumn, int count, int[] minOut, int[] maxOut, double[] rmsOut) {
+        columns(0, firstColumn, framesPerColumn, count, minOut, maxOut, rmsOut);
+    }
+
+    private void columns(double startFrame, long firstColumn, double framesPerColumn, int count, int[] minOut,
+                         int[] maxOut, double[] rmsOut) {
+        if (!finished) {
+            throw new IllegalStateException("Peak pyramid must be finished before it is queried.");
+        }
+        int level = levelFor(framesPerColumn);
+        long bucketFrames = (long) baseBucketFrames << level;
+        int[] levelMin = min[level];
+        int[] levelMax = max[level];
+        float[] levelEnergy = energy[level];
+
+        for (int c = 0; c < count; c++) {
+            long from = (long) Math.floor(startFrame + (firstColumn + c) * framesPerColumn);
+            long to = Math.max(from + 1, (long) Math.floor(startFrame + (firstColumn + c + 1) * framesPerColumn));
+            from = Math.max(0, from);
+            to = Math.min(frameCount, to);
+
+            int cMin = Integer.MAX_VALUE;
+            int cMax = Integer.MIN_VALUE;
+            double cEnergy = 0;
+            long cFrames = 0;
+            if (from < to) {
+                int first = (int) (from / bucketFrames);
+                int last = (int) ((to - 1) / bucketFrames);
+                for (int b = first; b <= last; b++) {
+                    cMin = Math.min(cMin, levelMin[b]);
+                    cMax = Math.max(cMax, levelMax[b]);
+                    cEnergy += levelEnergy[b];
+                    cFrames += Math.min(frameCount, (b + 1) * bucketFrames) - b * bucketFrames;
+                }
+            }
+            minOut[c] = cMin;
+            maxOut[c] = cMax;
+            if (rmsOut != null) {
+                rmsOut[c] = cFrames == 0 ? 0 : Math.sqrt(cEnergy / (cFrames * channels));
+            }
+        }
+    }
+
+    //the coarsest level whose buckets are no wider than a column
+    private int levelFor(double framesPerColumn) {
+        int level = 0;
+        while (level + 1 < min.length && ((long) baseBucketFrames << (level + 1)) <= framesPerColumn) {
+            level++;
+        }
+        return level;
+    }
+}
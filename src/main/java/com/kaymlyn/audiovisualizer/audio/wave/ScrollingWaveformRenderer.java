@@ -0,0 +1,127 @@
+package com.kaymlyn.audiovisualizer.audio.wave;
+
+import com.kaymlyn.audiovisualizer.audio.Renderer;
+import com.kaymlyn.audiovisualizer.audio.StaticLayer;
+import com.kaymlyn.audiovisualizer.metrics.RenderEvent;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+
+import static com.kaymlyn.audiovisualizer.audio.wave.Fading.Fade;
+
+/**
+ * Sequential rendering mode of an AudioWaveformRenderer. The last frame's raster and column spans are kept, and moving
+ * forward by delta columns shifts both left by delta. Only the delta newly exposed columns are read from the peaks.
+ * <p>
+ * Colors belong to canvas columns rather than to the audio, so a shifted column may still need recoloring; its span is
+ * unchanged though, so only the span's pixels are rewritten and only where the color differs. Columns next to the info
+ * inset get the inset rows restored from the static layer as well. Moving backwards, jumping further than the canvas
+ * width or reconfiguring the source renderer falls back to a full redraw.
+ * <p>
+ * Being stateful, one instance must not render frames from several threads; renderToImage is synchronized. Every
+ * returned image is the starting point of the next frame, so callers must treat them as read only.
+ */
+public class ScrollingWaveformRenderer implements Renderer {
+
+    private final AudioWaveformRenderer source;
+    private final StaticLayer layer;
+    private final Rectangle inset;
+    private final int width;
+    private final int height;
+
+    //pixels of the last returned image
+    private int[] raster;
+    private final ColumnSpans spans;
+    //colors of the current frame, kept apart from spans until a column has been brought up to date
+    private final int[] colors;
+    //frame index the raster currently holds, or Integer.MIN_VALUE when it holds nothing
+    private int frame = Integer.MIN_VALUE;
+    private Fade fade;
+    private double framesPerColumn;
+
+    ScrollingWaveformRenderer(AudioWaveformRenderer source) {
+        this.source = source;
+        this.layer = StaticLayer.of(source.canvas(), source.info());
+        this.inset = layer.inset();
+        this.width = layer.width();
+        this.height = layer.height();
+        this.spans = new ColumnSpans(width);
+        this.colors = new int[width];
+    }
+
+    @Override
+    public synchronized BufferedImage renderToImage(int frameIndex) {
+        RenderEvent event = new RenderEvent("scrolling waveform", frameIndex, width, height);
+        event.start();
+        Fade currentFade = source.fade();
+        double currentFramesPerColumn = source.framesPerColumn();
+        long delta = (long) frameIndex - frame;
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        if (frame == Integer.MIN_VALUE || delta < 0 || delta >= width
+                || !currentFade.equals(fade) || currentFramesPerColumn != framesPerColumn) {
+            fade = currentFade;
+            framesPerColumn = currentFramesPerColumn;
+            redraw(frameIndex, pixels);
+        } else {
+            scroll(frameIndex, (int) delta, pixels);
+        }
+        frame = frameIndex;
+        raster = pixels;
+        event.finish(1, (long) pixels.length * Integer.BYTES);
+        return image;
+    }
+
+    @Override
+    public boolean keepsState() {
+        return true;
+    }
+
+    @Override
+    public void renderToFile(File imageFile) throws IOException {
+        source.renderToFile(imageFile);
+    }
+
+    private void redraw(int frameIndex, int[] pixels) {
+        source.computeGeometry(frameIndex - width, framesPerColumn, spans, 0, width);
+        source.computeColors(width, frameIndex, fade, spans.rgb());
+        layer.copyInto(pixels);
+        WaveformRasterizer.draw(pixels, width, 0, height, 0, width, 0, spans);
+    }
+
+    //the previous frame is copied into pixels already shifted, then the columns that differ are fixed up
+    private void scroll(int frameIndex, int delta, int[] pixels) {
+        int kept = width - delta;
+        for (int row = 0; row < pixels.length; row += width) {
+            System.arraycopy(raster, row + delta, pixels, row, kept);
+        }
+        //after the shift spans.rgb() holds the color every kept column was drawn with
+        System.arraycopy(spans.top(), delta, spans.top(), 0, kept);
+        System.arraycopy(spans.bottom(), delta, spans.bottom(), 0, kept);
+        System.arraycopy(spans.rgb(), delta, spans.rgb(), 0, kept);
+        source.computeGeometry(frameIndex - width, framesPerColumn, spans, kept, width);
+        source.computeColors(width, frameIndex, fade, colors);
+
+        //newly exposed columns start from the layer, and so do the inset rows of kept columns whose background was
+        //shifted into or out of the inset
+        layer.copyInto(pixels, new Rectangle(kept, 0, delta, height));
+        int staleFrom = 0;
+        int staleTo = 0;
+        if (!inset.isEmpty()) {
+            staleFrom = Math.max(0, inset.x - delta);
+            staleTo = Math.min(kept, inset.x + inset.width);
+            layer.copyInto(pixels, new Rectangle(staleFrom, inset.y, staleTo - staleFrom, inset.height));
+        }
+
+        for (int column = 0; column < width; column++) {
+            boolean repaint = column >= kept || column >= staleFrom && column < staleTo;
+            if (repaint || colors[column] != spans.rgb()[column]) {
+                spans.rgb()[column] = colors[column];
+                WaveformRasterizer.draw(pixels, width, 0, height, column, column + 1, 0, spans);
+            }
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package com.kaymlyn.audiovisualizer.audio.wave;
+
+import com.kaymlyn.audiovisualizer.audio.StaticLayer;
+import com.kaymlyn.audiovisualizer.image.ImageOutput;
+import com.kaymlyn.audiovisualizer.image.Palette;
+import com.kaymlyn.audiovisualizer.image.PngEncoder;
+import com.kaymlyn.audiovisualizer.image.PngOptions;
+import com.kaymlyn.audiovisualizer.metrics.RenderEvent;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.kaymlyn.audiovisualizer.audio.AudioProcessor.Canvas;
+import static com.kaymlyn.audiovisualizer.audio.wave.Fading.Fade;
+
+/**
+ * Renders a canvas too wide for one image, such as a whole track at 100k pixels, as tiles of tileWidth columns. Tile t
+ * covers canvas columns [t * tileWidth, (t + 1) * tileWidth), the last tile may be narrower. Tiles are rendered in
+ * parallel, at most maxInFlight at a time, so memory is bounded by the tiles in flight rather than the canvas width.
+ * Put side by side, the tiles are the image the source renderer would render, provided the info inset fits into the
+ * first tile.
+ * <p>
+ * renderStitched streams all tiles into one PNG a band of rows at a time. Besides the band it only keeps the column
+ * spans, 12 bytes per column.
+ */
+public final class TiledWaveformRenderer {
+
+    public static final int DEFAULT_TILE_WIDTH = 2048;
+
+    //rows of the full width image rasterized at once by renderStitched
+    private static final int BAND_ROWS = 16;
+
+    private final AudioWaveformRenderer source;
+    private int tileWidth = DEFAULT_TILE_WIDTH;
+    private int maxInFlight = Runtime.getRuntime().availableProcessors();
+    private ImageOutput output = ImageOutput.DEFAULT;
+
+    @FunctionalInterface
+    private interface TileTask {
+        void run(int tile) throws IOException;
+    }
+
+    TiledWaveformRenderer(AudioWaveformRenderer source) {
+        this.source = source;
+    }
+
+    public TiledWaveformRenderer withTileWidth(int tileWidth) {
+        if (tileWidth < 1) {
+            throw new IllegalArgumentException("Tiles must be at least one column wide.");
+        }
+        this.tileWidth = tileWidth;
+        return this;
+    }
+
+    //tiles rendered at once
+    public TiledWaveformRenderer withMaxInFlight(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("At least one tile must be allowed in flight.");
+        }
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
+    //selects the encoder used for tile files
+    public TiledWaveformRenderer withOutput(ImageOutput output) {
+        this.output = output;
+        return this;
+    }
+
+    public int tileCount() {
+        return tileCount(width());
+    }
+
+    //tile of the image showing the columns leading up to frameIndex, as AudioWaveformRenderer.renderToImage does
+    public BufferedImage renderTile(int tile, int frameIndex) {
+        return renderTile(source, tile, frameIndex);
+    }
+
+    //writes every tile to directory as tile index plus the format's extension, e.g. 0.png, 1.png, ...
+    public void renderTiles(File directory, String format, int frameIndex) throws IOException {
+        Files.createDirectories(directory.toPath());
+        forEachTile(tileCount(), tile ->
+                output.write(renderTile(source, tile, frameIndex), new File(directory, tile + "." + format)));
+    }
+
+    /**
+     * Writes the whole track as a zoomable tile set, directory/level/tile plus the format's extension. Level 0 is the
+     * canvas at the source's zoom, every further level halves the width and doubles the frames per column, down to the
+     * first level that fits into a single tile.
+     */
+    public void renderLevels(File directory, String format) throws IOException {
+        Canvas canvas = source.canvas();
+        int width = width();
+        double framesPerColumn = source.framesPerColumn();
+        for (int level = 0; ; level++) {
+            AudioWaveformRenderer levelSource = level == 0 ? source
+                    : new AudioWaveformRenderer(source.peaks(),
+                            new Canvas(new Rectangle(width, canvas.imageBounds().height), canvas.globalBackground(),
+                                    canvas.initialColor(), canvas.shift()),
+                            source.info(), source.fade())
+                    .withZoom(framesPerColumn);
+            File levelDirectory = new File(directory, Integer.toString(level));
+            Files.createDirectories(levelDirectory.toPath());
+            int levelWidth = width;
+            forEachTile(tileCount(width), tile -> output.write(renderTile(levelSource, tile, levelWidth),
+                    new File(levelDirectory, tile + "." + format)));
+            if (width <= tileWidth) {
+                return;
+            }
+            width = (width + 1) / 2;
+            framesPerColumn *= 2;
+        }
+    }
+
+    public void renderStitched(File imageFile, int frameIndex, PngOptions options) throws IOException {
+        File directory = imageFile.getAbsoluteFile().getParentFile();
+        if (directory != null) {
+            Files.createDirectories(directory.toPath());
+        }
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(imageFile.toPath()), 1 << 16)) {
+            renderStitched(out, frameIndex, options);
+        }
+    }
+
+    //streams the whole canvas into out as one PNG, the tiles' column spans worked out in parallel first
+    public void renderStitched(OutputStream out, int frameIndex, PngOptions options) throws IOException {
+        int width = width();
+        int height = source.canvas().imageBounds().height;
+        RenderEvent event = new RenderEvent("waveform-stitched", frameIndex, width, height);
+        event.start();
+
+        int tiles = tileCount();
+        ColumnSpans[] spans = new ColumnSpans[tiles];
+        StaticLayer[] layers = new StaticLayer[tiles];
+        forEachTile(tiles, tile -> {
+            spans[tile] = spans(source, tile, frameIndex);
+            layers[tile] = layer(source, tile);
+        });
+
+        Palette palette = options.palette() ? palette(spans, layers) : null;
+        PngEncoder png = new PngEncoder(out, width, height, options, palette);
+        int[] band = new int[width * Math.min(BAND_ROWS, height)];
+        for (int rowFrom = 0; rowFrom < height; rowFrom += BAND_ROWS) {
+            int from = rowFrom;
+            int to = Math.min(height, rowFrom + BAND_ROWS);
+            forEachTile(tiles, tile -> {
+                int x = tile * tileWidth;
+                layers[tile].copyRowsInto(band, x, width, from, to);
+                WaveformRasterizer.draw(band, width, from, to, 0, spans[tile].count(), -x, spans[tile]);
+            });
+            png.writeRows(band, 0, width, to - from);
+        }
+        png.finish();
+        event.finish(tiles, (long) band.length * Integer.BYTES);
+    }
+
+    private BufferedImage renderTile(AudioWaveformRenderer renderer, int tile, int frameIndex) {
+        int width = renderer.canvas().imageBounds().width;
+        if (tile < 0 || tile >= tileCount(width)) {
+            throw new IllegalArgumentException("No tile " + tile + " on a canvas of " + tileCount(width) + " tiles.");
+        }
+        StaticLayer layer = layer(renderer, tile);
+        RenderEvent event = new RenderEvent("waveform-tile", frameIndex, layer.width(), layer.height());
+        event.start();
+        BufferedImage image = layer.newImage();
+        WaveformRasterizer.draw(image, spans(renderer, tile, frameIndex));
+        event.finish(1, (long) image.getWidth() * image.getHeight() * Integer.BYTES);
+        return image;
+    }
+
+    //spans of the tile's columns, column 0 being the tile's first
+    private ColumnSpans spans(AudioWaveformRenderer renderer, int tile, int frameIndex) {
+        int width = renderer.canvas().imageBounds().width;
+        int from = tile * tileWidth;
+        int to = Math.min(width, from + tileWidth);
+        Fade fade = renderer.fade();
+        ColumnSpans spans = new ColumnSpans(to - from);
+        renderer.computeGeometry((long) frameIndex - width + from, renderer.framesPerColumn(), spans, 0, to - from);
+        renderer.computeColors(width, frameIndex, fade, spans.rgb(), from, to);
+        return spans;
+    }
+
+    //background of the tile, with the info inset on the first one
+    private StaticLayer layer(AudioWaveformRenderer renderer, int tile) {
+        Canvas canvas = renderer.canvas();
+        int from = tile * tileWidth;
+        int to = Math.min(canvas.imageBounds().width, from + tileWidth);
+        Canvas tileCanvas = new Canvas(new Rectangle(to - from, canvas.imageBounds().height),
+                canvas.globalBackground(), canvas.initialColor(), canvas.shift());
+        return StaticLayer.of(tileCanvas, tile == 0 ? renderer.info() : null);
+    }
+
+    //every color the stitched image can contain, or null when there are more than a palette holds
+    private static Palette palette(ColumnSpans[] spans, StaticLayer[] layers) {
+        Set<Integer> colors = new LinkedHashSet<>();
+        //most tiles share one cached layer
+        for (StaticLayer layer : new LinkedHashSet<>(Arrays.asList(layers))) {
+            Palette layerColors = Palette.of(layer.newImage());
+            if (layerColors == null) {
+                return null;
+            }
+            for (int index = 0; index < layerColors.size(); index++) {
+                colors.add(layerColors.rgb(index));
+            }
+        }
+        for (ColumnSpans tile : spans) {
+            for (int column = 0; column < tile.count(); column++) {
+                if (tile.top()[column] <= tile.bottom()[column] && colors.add(tile.rgb()[column] & 0xFFFFFF)
+                        && colors.size() > Palette.MAX_COLORS) {
+                    return null;
+                }
+            }
+        }
+        return colors.size() > Palette.MAX_COLORS ? null
+                : Palette.of(colors.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    private void forEachTile(int tiles, TileTask task) throws IOException {
+        try (ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor()) {
+            Deque<Future<?>> window = new ArrayDeque<>(maxInFlight);
+            int nextSubmit = 0;
+            int nextDone = 0;
+            try {
+                while (nextDone < tiles) {
+                    while (nextSubmit < tiles && window.size() < maxInFlight) {
+                        int tile = nextSubmit++;
+                        window.addLast(threads.submit(() -> {
+                            task.run(tile);
+                            return null;
+                        }));
+                    }
+                    window.removeFirst().get();
+                    nextDone++;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for tile " + nextDone + ".");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException io) {
+                    throw io;
+                }
+                throw new IOException("Unable to render tile " + nextDone + ".", e.getCause());
+            } finally {
+                window.forEach(pending -> pending.cancel(true));
+            }
+        }
+    }
+
+    private int width() {
+        return source.canvas().imageBounds().width;
+    }
+
+    private int tileCount(int width) {
+        return (width + tileWidth - 1) / tileWidth;
+    }
+}
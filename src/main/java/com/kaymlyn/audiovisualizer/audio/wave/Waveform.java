@@ -2,116 +2,111 @@ package com.kaymlyn.audiovisualizer.audio.wave;
 
 import com.kaymlyn.audiovisualizer.audio.AudioProcessor;
 import com.kaymlyn.audiovisualizer.audio.Generator;
+import com.kaymlyn.audiovisualizer.audio.Normalizer;
+import com.kaymlyn.audiovisualizer.audio.SampleStore;
+import com.kaymlyn.audiovisualizer.metrics.WaveformEvent;
 
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
-import java.awt.geom.Line2D;
+import javax.sound.sampled.AudioSystem;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Comparator;
-import java.util.List;
 
 public class Waveform implements Generator<AudioWaveformRenderer> {
 
+    //frames per level 0 bucket of the peak pyramid when the complete waveform is kept, for peaks whose zoom is not
+    //known up front (RenderServer, animations that zoom in). 8 frames draw one column per bucket down to 8 frames per
+    //column; zooming in further still works, a bucket then simply spans several columns. At 12 bytes a bucket the
+    //pyramid costs about 3 bytes per frame, less than 16-bit stereo PCM.
+    public static final int COMPLETE_BUCKET_FRAMES = 8;
+
+    //level 0 buckets per column kept by bucketFramesForZoom, so that column edges fall within an eighth of a column of
+    //a bucket edge
+    private static final int BUCKETS_PER_COLUMN = 8;
+
     private final AudioProcessor audioProcessor;
     private final AudioFormat format;
-    private final List<Line2D.Double> waveform;
+    private final PeakPyramid peaks;
 
     public Waveform(AudioProcessor audioProcessor, AudioInputStream audioInputStream, boolean complete) throws IOException {
+        this(audioProcessor, audioInputStream,
+                bucketFramesFor(audioProcessor.canvas, audioInputStream.getFrameLength(), complete));
+    }
+
+    //builds the peaks with bucketFrames frames per level 0 bucket
+    public Waveform(AudioProcessor audioProcessor, AudioInputStream audioInputStream, int bucketFrames) throws IOException {
         this.audioProcessor = audioProcessor;
         format = audioInputStream.getFormat();
-        byte[] audioBytes = new byte[(int) (audioInputStream.getFrameLength() * format.getFrameSize())];
-        System.out.println("AudioFormat: " + format + " " + audioInputStream.read(audioBytes) + " bytes read");
-        audioInputStream.close();
-
-        if(complete) {
-            waveform = constructWaveform(Arrays.stream(audioProcessor.decodeAudio(format, audioBytes)).boxed().toList());
-        } else {
-            waveform = constructWaveForm(audioProcessor.decodeAudio(format, audioBytes));
+
+        peaks = new PeakPyramid(bucketFrames, format.getChannels());
+        WaveformEvent event = new WaveformEvent(format.toString(), format.getChannels());
+        event.start();
+        long bytesRead;
+        try (audioInputStream) {
+            bytesRead = audioProcessor.streamAudio(audioInputStream, peaks);
         }
+        peaks.finish();
+        event.finish(peaks.frameCount(), bytesRead);
     }
 
     public Waveform(AudioProcessor audioProcessor, AudioInputStream audioInputStream) throws IOException {
         this(audioProcessor,audioInputStream,true);
     }
 
-    public AudioWaveformRenderer generate() {
-        return new AudioWaveformRenderer(waveform, audioProcessor.canvas, audioProcessor.info);
+    //builds the peaks from samples that were already decoded, reading the store a chunk at a time. The store stays open.
+    public Waveform(AudioProcessor audioProcessor, SampleStore store, boolean complete) {
+        this.audioProcessor = audioProcessor;
+        format = store.format();
+        peaks = new PeakPyramid(bucketFramesFor(audioProcessor.canvas, store.frames(), complete), store.channels());
+        WaveformEvent event = new WaveformEvent(format.toString(), format.getChannels());
+        event.start();
+        long length = store.frames() * store.channels();
+        store.stream(0, length, AudioProcessor.CHUNK_FRAMES * store.channels(), peaks);
+        peaks.finish();
+        event.finish(peaks.frameCount(), length * store.width().bytes());
     }
 
-    public List<Integer> balance(List<Integer> audioData) {
-        int max = audioData.stream()
-                .map(Math::abs)
-                .sorted(Comparator.naturalOrder())
-                .toList()
-                .getLast();
-
-        //Scales all the integers in the audioData to the canvas height
-        return audioData.stream()
-                .map(value -> (audioProcessor.canvas.imageBounds().height * value / max))
-                .toList();
+    //wraps peaks that were already computed, e.g. read back from a PeakCache
+    public Waveform(AudioProcessor audioProcessor, AudioFormat format, PeakPyramid peaks) {
+        this.audioProcessor = audioProcessor;
+        this.format = format;
+        this.peaks = peaks.finish();
     }
 
-    @Override
-    public List<Integer> balance(int[] audioData) {
-        int max = Arrays.stream(audioData)
-                .map(Math::abs)
-                .boxed()
-                .sorted(Comparator.naturalOrder())
-                .toList()
-                .getLast();
-
-        //Scales all the integers in the audioData to the canvas height
-        return Arrays.stream(audioData)
-                .map(value -> (audioProcessor.canvas.imageBounds().height * value / max))
-                .boxed()
-                .toList();
+    //when compressing to the canvas only one bucket per column is needed, which keeps memory use independent of the
+    //length of the audio.
+    public static int bucketFramesFor(AudioProcessor.Canvas canvas, long frameLength, boolean complete) {
+        if (complete || frameLength == AudioSystem.NOT_SPECIFIED) {
+            return COMPLETE_BUCKET_FRAMES;
+        }
+        return (int) Math.max(1, frameLength / canvas.imageBounds().width);
     }
 
-    //Generates the List that represents the raw waveform image from raw audio data
-    private List<Line2D.Double> constructWaveForm(int[] audioData) {
-
-        //Super complicated way of finding the maximum integer in the audio data for normalization
-
-        List<Integer> balanced = balance(audioData);
+    //the level 0 bucket for peaks only ever drawn at framesPerColumn frames per column or more: a power of two, so
+    //nearby zooms share a cache entry, and never finer than COMPLETE_BUCKET_FRAMES
+    public static int bucketFramesForZoom(double framesPerColumn) {
+        double bucketFrames = framesPerColumn / BUCKETS_PER_COLUMN;
+        if (!(bucketFrames >= COMPLETE_BUCKET_FRAMES)) {
+            return COMPLETE_BUCKET_FRAMES;
+        }
+        return Integer.highestOneBit((int) Math.min(Integer.MAX_VALUE, bucketFrames));
+    }
 
-        List<Line2D.Double> lines = new ArrayList<>();
+    public AudioWaveformRenderer generate() {
+        return new AudioWaveformRenderer(peaks, audioProcessor.canvas, audioProcessor.info);
+    }
 
-        //Raw Waveform data generation.
-        int y_last = 0;
-        for (int x = 0; x < audioProcessor.canvas.imageBounds().width; x++) {
-            Integer value = balanced.get((audioData.length / format.getFrameSize() / audioProcessor.canvas.imageBounds().width) * format.getChannels() * x);
-            //scale data to the viewport height
-            int y_new = audioProcessor.canvas.imageBounds().height * (128 - value) / 256;
-            //add vertical line to array offset by x pixels.
-            lines.add(new Line2D.Double(x, y_last, x, y_new));
-            //return the last height
-            y_last = y_new;
-        }
-        return lines;
+    public AudioFormat format() {
+        return format;
     }
 
-    private List<Line2D.Double> constructWaveform(List<Integer> rawData) {
-        return constructWaveform(rawData, rawData.size());
+    public PeakPyramid peaks() {
+        return peaks;
     }
-    private List<Line2D.Double> constructWaveform(List<Integer> rawData, Integer finalLength) {
-        List<Line2D.Double> lines = new ArrayList<>();
-        double horizontalScaleFactor = (double)finalLength/(double)rawData.size();
-        List<Integer> balanced = balance(rawData);
-
-        //Raw Waveform data generation.
-        int y_last = 0;
-        for (int x = 0; x < finalLength; x++) {
-
-            Integer value = balanced.get((int)Math.floor(x*horizontalScaleFactor));
-            //scale data to the viewport height
-            int y_new = audioProcessor.canvas.imageBounds().height * (128 - value) / 256;
-            //add vertical line to array offset by x pixels.
-            lines.add(new Line2D.Double(x, y_last, x, y_new));
-            //return the last height
-            y_last = y_new;
-        }
-        return lines;
+
+    //Scales the samples to the canvas height
+    @Override
+    public double[] balance(int[] audioData, int length, double[] target) {
+        return Normalizer.scale(audioData, length, Normalizer.peak(audioData, length),
+                audioProcessor.canvas.imageBounds().height, target);
     }
 }
@@ -0,0 +1,42 @@
+package com.kaymlyn.audiovisualizer.audio.wave;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Writes waveform columns straight into the pixel array of a {@code TYPE_INT_RGB} image. Spans are clipped to the
+ * image the same way Graphics2D clips a one pixel wide line, so the result matches drawing them with drawLine.
+ */
+final class WaveformRasterizer {
+
+    private WaveformRasterizer() {
+    }
+
+    static void draw(BufferedImage image, ColumnSpans spans) {
+        if (image.getType() != BufferedImage.TYPE_INT_RGB) {
+            throw new IllegalArgumentException("Direct rasterization needs a TYPE_INT_RGB image.");
+        }
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        draw(pixels, image.getWidth(), 0, image.getHeight(), 0, Math.min(spans.count(), image.getWidth()), 0, spans);
+    }
+
+    /**
+     * Draws columns [columnFrom, columnTo) of spans into a row major pixel array whose first row is canvas row rowFrom
+     * and which holds rows up to (excluding) rowTo. Column c lands at x = c - xOrigin of the array.
+     */
+    static void draw(int[] pixels, int scanline, int rowFrom, int rowTo, int columnFrom, int columnTo, int xOrigin,
+                     ColumnSpans spans) {
+        int[] top = spans.top();
+        int[] bottom = spans.bottom();
+        int[] rgb = spans.rgb();
+        for (int column = columnFrom; column < columnTo; column++) {
+            int from = Math.max(top[column], rowFrom);
+            int to = Math.min(bottom[column], rowTo - 1);
+            //Java2D keeps the opaque alpha bits in IntRgb pixels, so they are written here too
+            int color = 0xFF000000 | rgb[column];
+            for (int index = (from - rowFrom) * scanline + column - xOrigin, y = from; y <= to; y++, index += scanline) {
+                pixels[index] = color;
+            }
+        }
+    }
+}
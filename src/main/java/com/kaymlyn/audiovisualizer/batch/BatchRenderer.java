@@ -0,0 +1,345 @@
+package com.kaymlyn.audiovisualizer.batch;
+
+import com.kaymlyn.audiovisualizer.audio.AudioProcessor.Canvas;
+import com.kaymlyn.audiovisualizer.audio.AudioProcessor.InfoBlock;
+import com.kaymlyn.audiovisualizer.audio.decode.AudioDecoders;
+import com.kaymlyn.audiovisualizer.audio.wave.Fading.Fade;
+import com.kaymlyn.audiovisualizer.audio.wave.PeakCache;
+import com.kaymlyn.audiovisualizer.audio.wave.PeakPyramid;
+import com.kaymlyn.audiovisualizer.audio.wave.Waveform;
+import com.kaymlyn.audiovisualizer.metrics.Metrics;
+
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+/**
+ * Renders every RenderSpec for every file of a batch, one virtual thread per audio file.
+ * <p>
+ * Two limits decide when a file may start: at most concurrency files render at once, and the estimated memory of the
+ * files in flight stays within memoryBudget. A file's estimate is its peak pyramid plus all of its images; a file
+ * estimated above the whole budget waits until it can run alone. A file that fails is reported and the rest of the
+ * batch carries on; an Error such as running out of memory stops the batch and is rethrown by render.
+ * <p>
+ * Each file is decoded once and a {@link RenderJob} renders all of its specs concurrently from that decode.
+ */
+public class BatchRenderer {
+
+    public static final long DEFAULT_CACHE_BYTES = 256L * 1024 * 1024;
+
+    //the images the original Driver produced for every file
+    public static final List<RenderSpec> DEFAULT_SPECS = List.of(
+            new RenderSpec("", "png",
+                    new Canvas(new Rectangle(600, 200), new Color(20, 20, 20), new Color(0, 0, 255), new Color(71, 4, 2)),
+                    new InfoBlock(new Font("serif", Font.PLAIN, 12), Color.white, Color.blue, "File: %s"),
+                    new Fade(0, 0, 0)),
+            new RenderSpec("2", "png",
+                    new Canvas(new Rectangle(600, 200), new Color(20, 20, 20), new Color(0, 0, 255), new Color(71, 4, 2)),
+                    new InfoBlock(new Font("serif", Font.PLAIN, 12), Color.white, Color.blue, "File: %s"),
+                    new Fade(1, 1, 1)),
+            new RenderSpec("3", "gif",
+                    new Canvas(new Rectangle(2000, 200), new Color(20, 20, 20), new Color(0, 0, 255), new Color(3, 3, 3)),
+                    new InfoBlock(new Font("serif", Font.PLAIN, 12), Color.white, Color.blue, "File: %s"),
+                    new Fade(.025, .035, .015)));
+
+    //files picked up when a directory is given instead of a manifest
+    private static final Set<String> AUDIO_EXTENSIONS = Set.of("wav", "wave", "aif", "aiff", "aifc", "au", "snd", "mp3");
+
+    private final Path outputDirectory;
+    private final List<RenderSpec> specs;
+    private int concurrency = Runtime.getRuntime().availableProcessors();
+    private long memoryBudget = Runtime.getRuntime().maxMemory() / 2;
+    private PeakCache cache;
+    private Listener listener = Listener.CONSOLE;
+
+    //progress callbacks, called from the rendering threads
+    public interface Listener {
+        Listener CONSOLE = new Listener() {
+            @Override
+            public void finished(Path audioFile, int completed, int total, Duration elapsed) {
+                System.out.println("[" + completed + "/" + total + "] " + audioFile + " rendered in "
+                        + elapsed.toMillis() + " ms");
+            }
+
+            @Override
+            public void failed(Path audioFile, int completed, int total, Throwable failure) {
+                System.err.println("[" + completed + "/" + total + "] " + audioFile + " failed: " + failure);
+            }
+        };
+
+        default void started(Path audioFile) {
+        }
+
+        default void finished(Path audioFile, int completed, int total, Duration elapsed) {
+        }
+
+        default void failed(Path audioFile, int completed, int total, Throwable failure) {
+        }
+    }
+
+    public record Report(int rendered, Map<Path, Throwable> failures) {
+        public boolean succeeded() {
+            return failures.isEmpty();
+        }
+    }
+
+    public BatchRenderer(Path outputDirectory, List<RenderSpec> specs) {
+        this.outputDirectory = outputDirectory;
+        this.specs = List.copyOf(specs);
+    }
+
+    public BatchRenderer withConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("At least one file must be allowed to render at a time.");
+        }
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    public BatchRenderer withMemoryBudget(long bytes) {
+        if (bytes < 1) {
+            throw new IllegalArgumentException("Memory budget must be positive.");
+        }
+        this.memoryBudget = bytes;
+        return this;
+    }
+
+    public BatchRenderer withCache(PeakCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    public BatchRenderer withListener(Listener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    public Report render(List<Path> audioFiles) throws IOException, InterruptedException {
+        Files.createDirectories(outputDirectory);
+
+        Semaphore slots = new Semaphore(concurrency, true);
+        //memory is counted in KiB so budgets beyond 2 GiB still fit a semaphore
+        int budgetKib = (int) Math.min(Integer.MAX_VALUE, Math.max(1, memoryBudget >> 10));
+        Semaphore memory = new Semaphore(budgetKib, true);
+        AtomicInteger completed = new AtomicInteger();
+        Map<Path, Throwable> failures = new ConcurrentHashMap<>();
+        AtomicReference<Error> fatal = new AtomicReference<>();
+        int total = audioFiles.size();
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Path audioFile : audioFiles) {
+                Runnable task = () -> {
+                    try {
+                        Duration elapsed = renderAdmitted(audioFile, slots, memory, budgetKib);
+                        listener.finished(audioFile, completed.incrementAndGet(), total, elapsed);
+                    } catch (Exception e) {
+                        //one broken file must not take the batch down
+                        failures.put(audioFile, e);
+                        listener.failed(audioFile, completed.incrementAndGet(), total, e);
+                        if (e instanceof InterruptedException) {
+                            Thread.currentThread().interrupt();
+                        }
+                    } catch (Error e) {
+                        //the JVM is in no state to go on, stop the other files and hand the error to the caller
+                        fatal.compareAndSet(null, e);
+                        executor.shutdownNow();
+                    }
+                };
+                try {
+                    executor.submit(task);
+                } catch (RejectedExecutionException e) {
+                    //a file failed fatally and shut the executor down, its error is thrown below
+                    break;
+                }
+            }
+        }
+        if (fatal.get() != null) {
+            throw fatal.get();
+        }
+        return new Report(total - failures.size(), Map.copyOf(failures));
+    }
+
+    //waits for a free slot and the file's share of the memory budget, then renders it
+    private Duration renderAdmitted(Path audioFile, Semaphore slots, Semaphore memory, int budgetKib)
+            throws InterruptedException, IOException, UnsupportedAudioFileException {
+        int weight = (int) Math.min(budgetKib, Math.max(1, estimateBytes(audioFile) >> 10));
+        slots.acquire();
+        try {
+            memory.acquire(weight);
+            try {
+                listener.started(audioFile);
+                long start = System.nanoTime();
+                renderFile(audioFile);
+                return Duration.ofNanos(System.nanoTime() - start);
+            } finally {
+                memory.release(weight);
+            }
+        } finally {
+            slots.release();
+        }
+    }
+
+    private void renderFile(Path audioFile) throws IOException, UnsupportedAudioFileException {
+        String name = audioFile.getFileName().toString();
+        String baseName = name.lastIndexOf('.') > 0 ? name.substring(0, name.lastIndexOf('.')) : name;
+        RenderJob job = new RenderJob(audioFile.toFile()).withCache(cache);
+        for (RenderSpec spec : specs) {
+            job.add(new RenderJob.Variant(spec.canvas(), spec.infoFor(name), spec.fade(),
+                    spec.outputFor(outputDirectory, baseName)));
+        }
+        job.render();
+    }
+
+    //memory held while a file renders: its peak pyramid and all of its images
+    private long estimateBytes(Path audioFile) {
+        long pyramidBytes;
+        try {
+            File file = audioFile.toFile();
+            long frames = AudioDecoders.frameLength(file);
+            if (frames == AudioSystem.NOT_SPECIFIED) {
+                //RenderJob then keeps the complete pyramid
+                pyramidBytes = PeakPyramid.byteSizeFor(AudioDecoders.estimatedFrameLength(file),
+                        Waveform.COMPLETE_BUCKET_FRAMES);
+            } else {
+                //every spec fits the track, so the widest canvas is the most zoomed in
+                int widest = 1;
+                for (RenderSpec spec : specs) {
+                    widest = Math.max(widest, spec.canvas().imageBounds().width);
+                }
+                pyramidBytes = PeakPyramid.byteSizeFor(frames, Waveform.bucketFramesForZoom((double) frames / widest));
+            }
+        } catch (UnsupportedAudioFileException | IOException e) {
+            //the render will fail on its own, it only needs a slot
+            return 0;
+        }
+
+        //the specs of a file render concurrently
+        long imageBytes = 0;
+        for (RenderSpec spec : specs) {
+            imageBytes += spec.imageBytes();
+        }
+        return pyramidBytes + imageBytes;
+    }
+
+    /**
+     * The audio files of a batch. A directory contributes its audio files, sorted by name; any other file is read as a
+     * manifest listing one audio file per line, relative to the manifest, with blank lines and lines starting with #
+     * ignored.
+     */
+    public static List<Path> collect(Path source) throws IOException {
+        if (Files.isDirectory(source)) {
+            try (Stream<Path> files = Files.list(source)) {
+                return files.filter(Files::isRegularFile)
+                        .filter(file -> AUDIO_EXTENSIONS.contains(extension(file)))
+                        .sorted()
+                        .toList();
+            }
+        }
+
+        List<Path> audioFiles = new ArrayList<>();
+        Path base = source.toAbsolutePath().getParent();
+        for (String line : Files.readAllLines(source)) {
+            String entry = line.strip();
+            if (!entry.isEmpty() && !entry.startsWith("#")) {
+                audioFiles.add(base.resolve(entry));
+            }
+        }
+        return audioFiles;
+    }
+
+    /**
+     * The specs listed in a file, one per line in the form RenderSpec.parse takes, with blank lines and lines starting
+     * with # ignored.
+     */
+    public static List<RenderSpec> readSpecs(Path file) throws IOException {
+        List<RenderSpec> specs = new ArrayList<>();
+        List<String> lines = Files.readAllLines(file);
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).strip();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                try {
+                    specs.add(RenderSpec.parse(line));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException(file + " line " + (i + 1) + ": " + e.getMessage(), e);
+                }
+            }
+        }
+        if (specs.isEmpty()) {
+            throw new IllegalArgumentException(file + " lists no specs.");
+        }
+        return specs;
+    }
+
+    private static String extension(Path file) {
+        String name = file.getFileName().toString();
+        return name.substring(name.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+    }
+
+    //BatchRenderer <directory|manifest> <output directory> [--specs file] [--concurrency n] [--memory-mb n]
+    //[--cache directory] [--cache-mb n] [--metrics true]
+    //without --specs every file gets DEFAULT_SPECS
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: BatchRenderer <directory|manifest> <output directory> [--specs file]"
+                    + " [--concurrency n] [--memory-mb n] [--cache directory] [--cache-mb n] [--metrics true]");
+            System.exit(2);
+        }
+
+        List<RenderSpec> specs = DEFAULT_SPECS;
+        Integer concurrency = null;
+        Long memoryBudget = null;
+        Path cacheDirectory = null;
+        long cacheBytes = DEFAULT_CACHE_BYTES;
+        for (int i = 2; i < args.length; i += 2) {
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            }
+            switch (args[i]) {
+                case "--specs" -> specs = readSpecs(Path.of(args[i + 1]));
+                case "--concurrency" -> concurrency = Integer.parseInt(args[i + 1]);
+                case "--memory-mb" -> memoryBudget = Long.parseLong(args[i + 1]) << 20;
+                case "--cache" -> cacheDirectory = Path.of(args[i + 1]);
+                case "--cache-mb" -> cacheBytes = Long.parseLong(args[i + 1]) << 20;
+                case "--metrics" -> Metrics.enable(Boolean.parseBoolean(args[i + 1]));
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        BatchRenderer batch = new BatchRenderer(Path.of(args[1]), specs);
+        if (concurrency != null) {
+            batch.withConcurrency(concurrency);
+        }
+        if (memoryBudget != null) {
+            batch.withMemoryBudget(memoryBudget);
+        }
+        if (cacheDirectory != null) {
+            batch.withCache(new PeakCache(cacheDirectory, cacheBytes));
+        }
+
+        Report report = batch.render(collect(Path.of(args[0])));
+        System.out.println(report.rendered() + " rendered, " + report.failures().size() + " failed");
+        if (Metrics.enabled()) {
+            System.out.print(Metrics.report());
+        }
+        System.exit(report.succeeded() ? 0 : 1);
+    }
+}
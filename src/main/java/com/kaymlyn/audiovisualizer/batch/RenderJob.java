@@ -0,0 +1,178 @@
+package com.kaymlyn.audiovisualizer.batch;
+
+import com.kaymlyn.audiovisualizer.audio.AudioProcessor;
+import com.kaymlyn.audiovisualizer.audio.AudioProcessor.Canvas;
+import com.kaymlyn.audiovisualizer.audio.AudioProcessor.InfoBlock;
+import com.kaymlyn.audiovisualizer.audio.decode.AudioDecoders;
+import com.kaymlyn.audiovisualizer.audio.wave.AudioWaveformRenderer;
+import com.kaymlyn.audiovisualizer.audio.wave.Fading.Fade;
+import com.kaymlyn.audiovisualizer.audio.wave.PeakCache;
+import com.kaymlyn.audiovisualizer.audio.wave.PeakPyramid;
+
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Renders any number of images of one audio file from a single decode. The file is decoded once into a peak pyramid
+ * fine enough for the most zoomed in variant, which does not depend on the canvas and is never modified, so every
+ * variant builds its columns from the same pyramid. The variants then render concurrently, at most concurrency at a
+ * time.
+ * <pre>
+ * new RenderJob(file)
+ *         .add(new Variant(small, info, fade, new File("small.png")))
+ *         .add(new Variant(wide, null, fade, new File("wide.gif")))
+ *         .render();
+ * </pre>
+ */
+public final class RenderJob {
+
+    /**
+     * One image of the job.
+     *
+     * @param framesPerColumn audio frames per column, FIT to fit the whole track onto the canvas
+     * @param frameIndex      column the image ends at, see AudioWaveformRenderer.renderToImage
+     */
+    public record Variant(Canvas canvas, InfoBlock info, Fade fade, double framesPerColumn, int frameIndex,
+                          File output) {
+
+        public static final double FIT = 0;
+
+        public Variant {
+            Objects.requireNonNull(canvas, "canvas");
+            Objects.requireNonNull(fade, "fade");
+            Objects.requireNonNull(output, "output");
+            if (framesPerColumn < 0) {
+                throw new IllegalArgumentException("Frames per column must be positive, or FIT.");
+            }
+        }
+
+        //the whole track fit onto the canvas
+        public Variant(Canvas canvas, InfoBlock info, Fade fade, File output) {
+            this(canvas, info, fade, FIT, canvas.imageBounds().width, output);
+        }
+    }
+
+    private final File audioFile;
+    private final List<Variant> variants = new ArrayList<>();
+    private PeakCache cache;
+    private int concurrency = Runtime.getRuntime().availableProcessors();
+
+    public RenderJob(File audioFile) {
+        this.audioFile = audioFile;
+    }
+
+    public RenderJob add(Variant variant) {
+        variants.add(Objects.requireNonNull(variant, "variant"));
+        return this;
+    }
+
+    public RenderJob withCache(PeakCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    //variants rendered at once
+    public RenderJob withConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("At least one variant must be allowed to render at a time.");
+        }
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    public List<Variant> variants() {
+        return List.copyOf(variants);
+    }
+
+    //decodes the file once and writes every variant
+    public void render() throws IOException, UnsupportedAudioFileException {
+        if (variants.isEmpty()) {
+            return;
+        }
+        //the pyramid is the same whichever canvas decodes it
+        PeakPyramid peaks = new AudioProcessor(variants.get(0).canvas())
+                .withCache(cache)
+                .waveformForZoom(audioFile, smallestZoom())
+                .peaks();
+        render(peaks);
+    }
+
+    //frames per column of the most zoomed in variant, 0 if a variant fits a track whose length the header does not tell
+    private double smallestZoom() throws IOException, UnsupportedAudioFileException {
+        long frames = 0;
+        double zoom = Double.MAX_VALUE;
+        for (Variant variant : variants) {
+            double framesPerColumn = variant.framesPerColumn();
+            if (framesPerColumn == Variant.FIT) {
+                if (frames == 0) {
+                    frames = AudioDecoders.frameLength(audioFile);
+                }
+                framesPerColumn = frames == AudioSystem.NOT_SPECIFIED ? 0
+                        : (double) frames / variant.canvas().imageBounds().width;
+            }
+            zoom = Math.min(zoom, framesPerColumn);
+        }
+        return zoom;
+    }
+
+    //writes every variant from peaks that were already decoded, e.g. held by a WaveformCache
+    public void render(PeakPyramid peaks) throws IOException {
+        Semaphore slots = new Semaphore(concurrency);
+        List<Future<?>> renders = new ArrayList<>(variants.size());
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            try {
+                for (Variant variant : variants) {
+                    renders.add(executor.submit(() -> {
+                        slots.acquire();
+                        try {
+                            renderer(peaks, variant).renderToFile(variant.output(), variant.frameIndex());
+                        } finally {
+                            slots.release();
+                        }
+                        return null;
+                    }));
+                }
+                for (int i = 0; i < renders.size(); i++) {
+                    await(renders.get(i), variants.get(i));
+                }
+            } finally {
+                //after a failure the remaining variants are abandoned
+                renders.forEach(render -> render.cancel(true));
+            }
+        }
+    }
+
+    private static void await(Future<?> render, Variant variant) throws IOException {
+        try {
+            render.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while rendering " + variant.output() + ".");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException("Unable to render " + variant.output() + ".", e.getCause());
+        }
+    }
+
+    private static AudioWaveformRenderer renderer(PeakPyramid peaks, Variant variant) {
+        AudioWaveformRenderer renderer = new AudioWaveformRenderer(peaks, variant.canvas(), variant.info(),
+                variant.fade());
+        if (variant.framesPerColumn() != Variant.FIT) {
+            renderer.withZoom(variant.framesPerColumn());
+        }
+        return renderer;
+    }
+}
@@ -0,0 +1,135 @@
+package com.kaymlyn.audiovisualizer.batch;
+
+import com.kaymlyn.audiovisualizer.audio.AudioProcessor.Canvas;
+import com.kaymlyn.audiovisualizer.audio.AudioProcessor.InfoBlock;
+import com.kaymlyn.audiovisualizer.audio.wave.Fading.Fade;
+import com.kaymlyn.audiovisualizer.image.ImageOutput;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Rectangle;
+import java.io.File;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * One image rendered for every audio file of a batch, written as {@code <audio file name><suffix>.<extension>}.
+ * The text of info is a format string that receives the audio file's name, so one spec can label every file; info may
+ * be null for no inset.
+ */
+public record RenderSpec(String suffix, String extension, Canvas canvas, InfoBlock info, Fade fade) {
+
+    //the names parse understands
+    private static final Set<String> SETTINGS = Set.of("suffix", "format", "width", "height", "background", "color",
+            "shift", "fade", "info");
+
+    public RenderSpec {
+        Objects.requireNonNull(suffix, "suffix");
+        Objects.requireNonNull(extension, "extension");
+        Objects.requireNonNull(canvas, "canvas");
+        Objects.requireNonNull(fade, "fade");
+    }
+
+    public RenderSpec(String suffix, String extension, Canvas canvas) {
+        this(suffix, extension, canvas, null, new Fade(0, 0, 0));
+    }
+
+    /**
+     * Parses a spec written as name=value pairs separated by whitespace, with the names and defaults RenderServer takes:
+     * suffix (empty), format (png), width (600), height (200), background, color and shift as hex RGB, fade as three
+     * comma separated rates (0,0,0) and info. Info takes the rest of the line, so it must come last; without it the
+     * image has no inset.
+     * <pre>
+     * suffix=2 format=gif width=2000 fade=.025,.035,.015 info=File: %s
+     * </pre>
+     */
+    static RenderSpec parse(String line) {
+        Map<String, String> values = new HashMap<>();
+        String rest = line.strip();
+        while (!rest.isEmpty()) {
+            int equals = rest.indexOf('=');
+            if (equals < 1) {
+                throw new IllegalArgumentException("Expected name=value but found " + rest + ".");
+            }
+            String name = rest.substring(0, equals);
+            if (!SETTINGS.contains(name)) {
+                throw new IllegalArgumentException("Unknown setting " + name + ".");
+            }
+            int end = equals;
+            while (end < rest.length() && (name.equals("info") || !Character.isWhitespace(rest.charAt(end)))) {
+                end++;
+            }
+            if (values.put(name, rest.substring(equals + 1, end)) != null) {
+                throw new IllegalArgumentException(name + " is given twice.");
+            }
+            rest = rest.substring(end).strip();
+        }
+
+        String extension = values.getOrDefault("format", "png").toLowerCase();
+        if (!ImageOutput.supports(extension)) {
+            throw new IllegalArgumentException("No image writer for format " + extension + ".");
+        }
+        int width = integer(values, "width", 600);
+        int height = integer(values, "height", 200);
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("Canvas must be at least 1x1.");
+        }
+        Canvas canvas = new Canvas(new Rectangle(width, height), color(values, "background", "141414"),
+                color(values, "color", "0000ff"), color(values, "shift", "470402"));
+        InfoBlock info = values.containsKey("info")
+                ? new InfoBlock(new Font("serif", Font.PLAIN, 12), Color.white, Color.blue, values.get("info"))
+                : null;
+        return new RenderSpec(values.getOrDefault("suffix", ""), extension, canvas, info,
+                fade(values.getOrDefault("fade", "0,0,0")));
+    }
+
+    InfoBlock infoFor(String audioFileName) {
+        if (info == null) {
+            return null;
+        }
+        return new InfoBlock(info.infoFont(), info.infoInsetColor(), info.infoTextColor(),
+                String.format(info.info(), audioFileName));
+    }
+
+    File outputFor(Path directory, String baseName) {
+        return directory.resolve(baseName + suffix + "." + extension).toFile();
+    }
+
+    private static int integer(Map<String, String> values, String name, int fallback) {
+        String value = values.get(name);
+        try {
+            return value == null ? fallback : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a whole number.");
+        }
+    }
+
+    private static Color color(Map<String, String> values, String name, String fallback) {
+        String value = values.getOrDefault(name, fallback);
+        try {
+            return new Color(Integer.parseInt(value.startsWith("#") ? value.substring(1) : value, 16));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a hex RGB color.");
+        }
+    }
+
+    private static Fade fade(String value) {
+        String[] rates = value.split(",");
+        try {
+            if (rates.length == 3) {
+                return new Fade(Double.parseDouble(rates[0]), Double.parseDouble(rates[1]), Double.parseDouble(rates[2]));
+            }
+        } catch (NumberFormatException e) {
+            //reported below
+        }
+        throw new IllegalArgumentException("fade must be three comma separated rates.");
+    }
+
+    //the rendered image plus roughly as much again for its encoded copy
+    long imageBytes() {
+        return 2L * canvas.imageBounds().width * canvas.imageBounds().height * Integer.BYTES;
+    }
+}
@@ -0,0 +1,104 @@
+package com.kaymlyn.audiovisualizer.image;
+
+import com.kaymlyn.audiovisualizer.metrics.ImageWriteEvent;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.Locale;
+
+/**
+ * Writes rendered images to files. The encoder is chosen from the explicit format when one is set and from the file
+ * extension otherwise: PNG goes through {@link PngEncoder} with the configured PngOptions, any other format through the
+ * matching ImageIO writer. GIFs of images with at most 256 colors are handed over already indexed with their exact
+ * palette, so the GIF writer neither quantizes nor dithers them.
+ */
+public final class ImageOutput {
+
+    public static final ImageOutput DEFAULT = new ImageOutput(null, PngOptions.DEFAULT);
+
+    private static final String DEFAULT_FORMAT = "png";
+
+    private final String format;
+    private final PngOptions png;
+
+    private ImageOutput(String format, PngOptions png) {
+        this.format = format;
+        this.png = png;
+    }
+
+    //a fixed format regardless of the file extension, null to go back to the extension
+    public ImageOutput withFormat(String format) {
+        return new ImageOutput(format == null ? null : format.toLowerCase(Locale.ROOT), png);
+    }
+
+    public ImageOutput withPng(PngOptions png) {
+        return new ImageOutput(format, png);
+    }
+
+    public String formatFor(File file) {
+        if (format != null) {
+            return format;
+        }
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? DEFAULT_FORMAT : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    //writes the image, creating missing parent directories
+    public void write(BufferedImage image, File file) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (directory != null) {
+            Files.createDirectories(directory.toPath());
+        }
+        String imageFormat = formatFor(file);
+
+        ImageWriteEvent event = new ImageWriteEvent(file.getPath(), imageFormat);
+        event.start();
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file.toPath()), 1 << 16)) {
+            write(image, imageFormat, out);
+        }
+        event.finish(1, file.length());
+    }
+
+    //whether images can be written in the format, PNG or anything ImageIO has a writer for
+    public static boolean supports(String imageFormat) {
+        return imageFormat.equals("png") || ImageIO.getImageWritersByFormatName(imageFormat).hasNext();
+    }
+
+    public void write(BufferedImage image, String imageFormat, OutputStream out) throws IOException {
+        if (imageFormat.equals("png")) {
+            PngEncoder.encode(image, out, png);
+            return;
+        }
+
+        BufferedImage encoded = image;
+        if (imageFormat.equals("gif") && image.getType() != BufferedImage.TYPE_BYTE_INDEXED) {
+            Palette palette = Palette.of(image);
+            if (palette != null) {
+                encoded = palette.toIndexed(image);
+            }
+        }
+
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(imageFormat);
+        if (!writers.hasNext()) {
+            throw new IOException("No image writer for format " + imageFormat + ".");
+        }
+        ImageWriter writer = writers.next();
+        //an in memory cache instead of the temporary file ImageIO would otherwise create
+        try (ImageOutputStream stream = new MemoryCacheImageOutputStream(out)) {
+            writer.setOutput(stream);
+            writer.write(encoded);
+        } finally {
+            writer.dispose();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.kaymlyn.audiovisualizer.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.util.Arrays;
+
+/**
+ * The distinct colors of an image with few of them. Waveforms are drawn with a handful of colors, so most frames fit
+ * into 256 entries and can be stored one byte, or less, per pixel.
+ */
+public final class Palette {
+
+    public static final int MAX_COLORS = 256;
+
+    //open addressing table of rgb + 1 (0 marks an empty slot) and the matching index
+    private static final int SLOTS = 1024;
+
+    private final int[] colors;
+    private final int[] keys = new int[SLOTS];
+    private final int[] indices = new int[SLOTS];
+
+    private Palette(int[] colors) {
+        this.colors = colors;
+        for (int index = 0; index < colors.length; index++) {
+            int slot = slot(colors[index]);
+            while (keys[slot] != 0) {
+                slot = (slot + 1) & (SLOTS - 1);
+            }
+            keys[slot] = colors[index] + 1;
+            indices[slot] = index;
+        }
+    }
+
+    //the palette of the given colors, alpha bits are ignored
+    public static Palette of(int... rgb) {
+        int[] distinct = Arrays.stream(rgb).map(color -> color & 0xFFFFFF).distinct().toArray();
+        if (distinct.length > MAX_COLORS) {
+            throw new IllegalArgumentException("A palette holds at most " + MAX_COLORS + " colors.");
+        }
+        return new Palette(distinct);
+    }
+
+    //the palette of width by height pixels starting at offset, or null when they use more than MAX_COLORS colors
+    public static Palette of(int[] pixels, int offset, int scanline, int width, int height) {
+        int[] keys = new int[SLOTS];
+        int[] colors = new int[MAX_COLORS];
+        int count = 0;
+        int last = -1;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0, i = offset + y * scanline; x < width; x++, i++) {
+                int rgb = pixels[i] & 0xFFFFFF;
+                //runs of one color are the common case
+                if (rgb == last) {
+                    continue;
+                }
+                last = rgb;
+                int slot = slot(rgb);
+                while (keys[slot] != 0 && keys[slot] != rgb + 1) {
+                    slot = (slot + 1) & (SLOTS - 1);
+                }
+                if (keys[slot] == 0) {
+                    if (count == MAX_COLORS) {
+                        return null;
+                    }
+                    keys[slot] = rgb + 1;
+                    colors[count++] = rgb;
+                }
+            }
+        }
+        return new Palette(Arrays.copyOf(colors, count));
+    }
+
+    public static Palette of(BufferedImage image) {
+        int[] pixels = image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+        return of(pixels, 0, image.getWidth(), image.getWidth(), image.getHeight());
+    }
+
+    public int size() {
+        return colors.length;
+    }
+
+    public int rgb(int index) {
+        return colors[index];
+    }
+
+    //index of a color of the palette, -1 for any other color
+    public int indexOf(int rgb) {
+        rgb &= 0xFFFFFF;
+        int slot = slot(rgb);
+        while (keys[slot] != 0) {
+            if (keys[slot] == rgb + 1) {
+                return indices[slot];
+            }
+            slot = (slot + 1) & (SLOTS - 1);
+        }
+        return -1;
+    }
+
+    //bits per pixel of an indexed PNG holding this palette
+    int bitDepth() {
+        return colors.length <= 2 ? 1 : colors.length <= 4 ? 2 : colors.length <= 16 ? 4 : 8;
+    }
+
+    //a TYPE_BYTE_INDEXED copy of an image whose colors all belong to this palette
+    public BufferedImage toIndexed(BufferedImage image) {
+        byte[] r = new byte[colors.length];
+        byte[] g = new byte[colors.length];
+        byte[] b = new byte[colors.length];
+        for (int index = 0; index < colors.length; index++) {
+            r[index] = (byte) (colors[index] >> 16);
+            g[index] = (byte) (colors[index] >> 8);
+            b[index] = (byte) colors[index];
+        }
+        int width = image.getWidth();
+        BufferedImage indexed = new BufferedImage(width, image.getHeight(), BufferedImage.TYPE_BYTE_INDEXED,
+                new IndexColorModel(8, colors.length, r, g, b));
+        byte[] target = ((DataBufferByte) indexed.getRaster().getDataBuffer()).getData();
+        int[] row = new int[width];
+        for (int y = 0; y < image.getHeight(); y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int x = 0; x < width; x++) {
+                int index = indexOf(row[x]);
+                if (index < 0) {
+                    throw new IllegalArgumentException("Color " + Integer.toHexString(row[x]) + " is not in the palette.");
+                }
+                target[y * width + x] = (byte) index;
+            }
+        }
+        return indexed;
+    }
+
+    private static int slot(int rgb) {
+        return (rgb * 0x9E3779B1 >>> 22) & (SLOTS - 1);
+    }
+}
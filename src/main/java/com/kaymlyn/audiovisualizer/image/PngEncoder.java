@@ -0,0 +1,445 @@
+package com.kaymlyn.audiovisualizer.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import static com.kaymlyn.audiovisualizer.image.PngOptions.Filter;
+
+/**
+ * Row streaming PNG encoder for packed RGB pixels, written as 8 bit truecolor, as truecolor with alpha for ARGB pixels
+ * or, with a Palette, as indexed color.
+ * <p>
+ * Rows are filtered as they arrive and collected into blocks of about BLOCK_BYTES. Every block is deflated on its own,
+ * primed with the last 32 KiB of the block before it, and ended with a sync flush, so the blocks concatenate into one
+ * valid zlib stream compressing almost as well as a single deflater. With a parallelism above 1 the blocks are
+ * compressed on the common fork-join pool while later rows are still being filtered; at most parallelism blocks are
+ * pending, so memory stays bounded however tall the image is.
+ * <pre>
+ * PngEncoder png = new PngEncoder(out, width, height, options, null);
+ * png.writeRows(pixels, 0, width, rows);
+ * ...
+ * png.finish();
+ * </pre>
+ */
+public final class PngEncoder {
+
+    private static final byte[] SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+    private static final int BLOCK_BYTES = 1 << 18;
+    private static final int DICTIONARY_BYTES = 1 << 15;
+    private static final int FILTER_CHUNK = 512;
+    //filter types in the order ADAPTIVE tries them, UP first as waveform rows mostly repeat the row above
+    private static final int[] ADAPTIVE_ORDER = {2, 0, 1, 3, 4};
+
+    private static final int COLOR_TRUECOLOR = 2;
+    private static final int COLOR_INDEXED = 3;
+    private static final int COLOR_TRUECOLOR_ALPHA = 6;
+
+    private final DataOutputStream out;
+    private final int width;
+    private final int height;
+    private final PngOptions options;
+    private final Palette palette;
+    private final boolean alpha;
+    private final Filter filter;
+    private final int bitDepth;
+    //bytes per complete pixel, the distance filters look back
+    private final int filterDistance;
+    private final int rowBytes;
+
+    private byte[] previousRow;
+    private byte[] currentRow;
+    //one scratch row per filter type, each starting with its filter byte
+    private final byte[][] candidates = new byte[5][];
+
+    private byte[] block;
+    private int blockFill;
+    private byte[] dictionary;
+    private final Adler32 adler = new Adler32();
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private boolean headerWritten;
+    private int rowsWritten;
+
+    public PngEncoder(OutputStream out, int width, int height, PngOptions options, Palette palette) throws IOException {
+        this(out, width, height, options, palette, false);
+    }
+
+    //with alpha the pixels are non-premultiplied ARGB and keep their alpha; a palette only holds opaque colors
+    public PngEncoder(OutputStream out, int width, int height, PngOptions options, Palette palette, boolean alpha)
+            throws IOException {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("A PNG needs at least one pixel.");
+        }
+        if (alpha && palette != null) {
+            throw new IllegalArgumentException("Indexed color does not keep alpha.");
+        }
+        this.out = new DataOutputStream(out);
+        this.width = width;
+        this.height = height;
+        this.options = options;
+        this.palette = palette;
+        this.alpha = alpha;
+        this.bitDepth = palette == null ? 8 : palette.bitDepth();
+        this.filterDistance = palette != null ? 1 : alpha ? 4 : 3;
+        this.rowBytes = palette == null ? width * filterDistance : (width * bitDepth + 7) / 8;
+        this.filter = options.filter() != Filter.AUTO ? options.filter()
+                : palette == null ? Filter.ADAPTIVE : Filter.NONE;
+
+        previousRow = new byte[rowBytes];
+        currentRow = new byte[rowBytes];
+        for (int i = 0; i < candidates.length; i++) {
+            candidates[i] = new byte[rowBytes + 1];
+            candidates[i][0] = (byte) i;
+        }
+        block = new byte[blockCapacity()];
+
+        this.out.write(SIGNATURE);
+        writeHeader();
+    }
+
+    //encodes a whole image, with alpha when its color model has any, otherwise as indexed color when the options allow
+    //it and the image has few enough colors
+    public static void encode(BufferedImage image, OutputStream out, PngOptions options) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels;
+        int offset;
+        int scanline;
+        if ((image.getType() == BufferedImage.TYPE_INT_RGB || image.getType() == BufferedImage.TYPE_INT_ARGB)
+                && image.getRaster().getParent() == null) {
+            //the raster's own array, no copy
+            pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            offset = 0;
+            scanline = ((SinglePixelPackedSampleModel) image.getSampleModel()).getScanlineStride();
+        } else {
+            pixels = image.getRGB(0, 0, width, height, null, 0, width);
+            offset = 0;
+            scanline = width;
+        }
+
+        //both the raster of TYPE_INT_ARGB and getRGB give non-premultiplied alpha
+        boolean alpha = image.getColorModel().hasAlpha();
+        Palette palette = options.palette() && !alpha ? Palette.of(pixels, offset, scanline, width, height) : null;
+        PngEncoder encoder = new PngEncoder(out, width, height, options, palette, alpha);
+        encoder.writeRows(pixels, offset, scanline, height);
+        encoder.finish();
+    }
+
+    //appends rows of packed RGB pixels, the first one starting at offset and each scanline entries after the last
+    public void writeRows(int[] pixels, int offset, int scanline, int rows) throws IOException {
+        if (rowsWritten + rows > height) {
+            throw new IllegalStateException("More rows than the image is high.");
+        }
+        for (int row = 0; row < rows; row++) {
+            pack(pixels, offset + row * scanline);
+            byte[] filtered = filterRow();
+            if (blockFill + filtered.length > block.length) {
+                submitBlock(false);
+            }
+            System.arraycopy(filtered, 0, block, blockFill, filtered.length);
+            blockFill += filtered.length;
+
+            byte[] swap = previousRow;
+            previousRow = currentRow;
+            currentRow = swap;
+            rowsWritten++;
+        }
+    }
+
+    //compresses what is left and writes the end of the image; the underlying stream is flushed but left open
+    public void finish() throws IOException {
+        if (rowsWritten != height) {
+            throw new IllegalStateException("Only " + rowsWritten + " of " + height + " rows were written.");
+        }
+        submitBlock(true);
+        while (!pending.isEmpty()) {
+            writePending();
+        }
+        //the zlib stream ends with the Adler-32 of everything compressed, IDAT chunks simply concatenate
+        byte[] checksum = new byte[4];
+        putInt(checksum, 0, (int) adler.getValue());
+        writeChunk("IDAT", checksum, checksum.length);
+        writeChunk("IEND", new byte[0], 0);
+        out.flush();
+    }
+
+    private void writeHeader() throws IOException {
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = (byte) bitDepth;
+        header[9] = (byte) (palette != null ? COLOR_INDEXED : alpha ? COLOR_TRUECOLOR_ALPHA : COLOR_TRUECOLOR);
+        writeChunk("IHDR", header, header.length);
+
+        if (palette != null) {
+            byte[] entries = new byte[palette.size() * 3];
+            for (int index = 0; index < palette.size(); index++) {
+                entries[index * 3] = (byte) (palette.rgb(index) >> 16);
+                entries[index * 3 + 1] = (byte) (palette.rgb(index) >> 8);
+                entries[index * 3 + 2] = (byte) palette.rgb(index);
+            }
+            writeChunk("PLTE", entries, entries.length);
+        }
+    }
+
+    private void pack(int[] pixels, int start) {
+        byte[] row = currentRow;
+        if (palette == null) {
+            for (int x = 0, i = 0; x < width; x++) {
+                int rgb = pixels[start + x];
+                row[i++] = (byte) (rgb >> 16);
+                row[i++] = (byte) (rgb >> 8);
+                row[i++] = (byte) rgb;
+                if (alpha) {
+                    row[i++] = (byte) (rgb >>> 24);
+                }
+            }
+            return;
+        }
+
+        if (bitDepth == 8) {
+            for (int x = 0; x < width; x++) {
+                row[x] = (byte) index(pixels[start + x]);
+            }
+            return;
+        }
+        //several pixels per byte, leftmost pixel in the high bits
+        Arrays.fill(row, (byte) 0);
+        int perByte = 8 / bitDepth;
+        for (int x = 0; x < width; x++) {
+            int shift = 8 - bitDepth * (x % perByte + 1);
+            row[x / perByte] |= (byte) (index(pixels[start + x]) << shift);
+        }
+    }
+
+    private int index(int rgb) {
+        int index = palette.indexOf(rgb);
+        if (index < 0) {
+            throw new IllegalArgumentException("Color " + Integer.toHexString(rgb & 0xFFFFFF) + " is not in the palette.");
+        }
+        return index;
+    }
+
+    //filters the current row against the previous one, returning the filter byte followed by the filtered row
+    private byte[] filterRow() {
+        if (filter != Filter.ADAPTIVE) {
+            int type = filter.ordinal() - Filter.NONE.ordinal();
+            applyFilter(type, candidates[type], Long.MAX_VALUE);
+            return candidates[type];
+        }
+
+        byte[] best = null;
+        long bestSum = Long.MAX_VALUE;
+        for (int type : ADAPTIVE_ORDER) {
+            long sum = applyFilter(type, candidates[type], bestSum);
+            if (sum < bestSum) {
+                bestSum = sum;
+                best = candidates[type];
+            }
+        }
+        return best;
+    }
+
+    //writes the row filtered with type into target after its filter byte, returning the sum of absolute values. The
+    //row is filtered in chunks and abandoned as soon as the sum reaches limit, the row is then of no use anyway
+    private long applyFilter(int type, byte[] target, long limit) {
+        long sum = 0;
+        for (int from = 0; from < rowBytes && sum < limit; from += FILTER_CHUNK) {
+            sum += applyFilter(type, target, from, Math.min(rowBytes, from + FILTER_CHUNK));
+        }
+        return sum;
+    }
+
+    //one loop per type keeps the type check out of the per byte work
+    private int applyFilter(int type, byte[] target, int from, int to) {
+        //the row above the first one counts as zeros, which is what previousRow starts out as
+        byte[] row = currentRow;
+        byte[] up = previousRow;
+        int d = filterDistance;
+        //the first d bytes have no left neighbour, which counts as zero
+        int left = Math.min(to, Math.max(from, d));
+        //an int cannot overflow within a chunk and lets the loops vectorize
+        int sum = 0;
+        switch (type) {
+            case 0 -> {
+                System.arraycopy(row, from, target, from + 1, to - from);
+                for (int i = from; i < to; i++) {
+                    sum += Math.abs(row[i]);
+                }
+            }
+            case 1 -> {
+                for (int i = from; i < left; i++) {
+                    target[i + 1] = row[i];
+                    sum += Math.abs(row[i]);
+                }
+                for (int i = left; i < to; i++) {
+                    byte value = (byte) (row[i] - row[i - d]);
+                    target[i + 1] = value;
+                    sum += Math.abs(value);
+                }
+            }
+            case 2 -> {
+                for (int i = from; i < to; i++) {
+                    byte value = (byte) (row[i] - up[i]);
+                    target[i + 1] = value;
+                    sum += Math.abs(value);
+                }
+            }
+            case 3 -> {
+                for (int i = from; i < left; i++) {
+                    byte value = (byte) (row[i] - ((up[i] & 0xFF) >>> 1));
+                    target[i + 1] = value;
+                    sum += Math.abs(value);
+                }
+                for (int i = left; i < to; i++) {
+                    byte value = (byte) (row[i] - (((row[i - d] & 0xFF) + (up[i] & 0xFF)) >>> 1));
+                    target[i + 1] = value;
+                    sum += Math.abs(value);
+                }
+            }
+            default -> {
+                //with no left neighbour Paeth always predicts the byte above
+                for (int i = from; i < left; i++) {
+                    byte value = (byte) (row[i] - up[i]);
+                    target[i + 1] = value;
+                    sum += Math.abs(value);
+                }
+                for (int i = left; i < to; i++) {
+                    byte value = (byte) (row[i] - paeth(row[i - d] & 0xFF, up[i] & 0xFF, up[i - d] & 0xFF));
+                    target[i + 1] = value;
+                    sum += Math.abs(value);
+                }
+            }
+        }
+        return sum;
+    }
+
+    //same choice as the usual a, b, c cascade, written as two selects that compile without branches
+    private static int paeth(int a, int b, int c) {
+        int pa = Math.abs(b - c);
+        int pb = Math.abs(a - c);
+        int pc = Math.abs(a + b - c - c);
+        int nearer = pa <= pb ? a : b;
+        return Math.min(pa, pb) <= pc ? nearer : c;
+    }
+
+    private void submitBlock(boolean last) throws IOException {
+        byte[] data = block;
+        int length = blockFill;
+        byte[] primer = dictionary;
+        adler.update(data, 0, length);
+        //the window the next block may refer back to
+        int keep = Math.min(DICTIONARY_BYTES, length);
+        if (keep == DICTIONARY_BYTES || primer == null) {
+            dictionary = Arrays.copyOfRange(data, length - keep, length);
+        } else {
+            byte[] joined = Arrays.copyOf(primer, primer.length + keep);
+            System.arraycopy(data, length - keep, joined, primer.length, keep);
+            dictionary = Arrays.copyOfRange(joined, Math.max(0, joined.length - DICTIONARY_BYTES), joined.length);
+        }
+
+        if (options.parallelism() > 1 && !(last && pending.isEmpty())) {
+            while (pending.size() >= options.parallelism()) {
+                writePending();
+            }
+            pending.addLast(CompletableFuture.supplyAsync(() -> deflate(data, length, primer, last),
+                    ForkJoinPool.commonPool()));
+            block = new byte[blockCapacity()];
+        } else {
+            pending.addLast(CompletableFuture.completedFuture(deflate(data, length, primer, last)));
+            writePending();
+        }
+        blockFill = 0;
+    }
+
+    private void writePending() throws IOException {
+        byte[] compressed;
+        try {
+            compressed = pending.removeFirst().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing.");
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to compress image data.", e.getCause());
+        }
+
+        byte[] payload = compressed;
+        if (!headerWritten) {
+            //zlib header: 32 KiB window, deflate, check bits making the pair divisible by 31
+            payload = new byte[compressed.length + 2];
+            payload[0] = 0x78;
+            payload[1] = (byte) 0x9C;
+            System.arraycopy(compressed, 0, payload, 2, compressed.length);
+            headerWritten = true;
+        }
+        writeChunk("IDAT", payload, payload.length);
+    }
+
+    private byte[] deflate(byte[] data, int length, byte[] primer, boolean last) {
+        Deflater deflater = new Deflater(options.compressionLevel(), true);
+        try {
+            if (primer != null) {
+                deflater.setDictionary(primer);
+            }
+            deflater.setInput(data, 0, length);
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, length / 4));
+            byte[] buffer = new byte[1 << 16];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    compressed.write(buffer, 0, deflater.deflate(buffer));
+                }
+            } else {
+                //a sync flush ends the block on a byte boundary without ending the stream
+                int count;
+                do {
+                    count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    compressed.write(buffer, 0, count);
+                } while (count == buffer.length);
+            }
+            return compressed.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    //whole rows of filtered data per block
+    private int blockCapacity() {
+        int rowWithFilter = rowBytes + 1;
+        return Math.max(1, BLOCK_BYTES / rowWithFilter) * rowWithFilter;
+    }
+
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    private static void putInt(byte[] target, int offset, int value) {
+        target[offset] = (byte) (value >>> 24);
+        target[offset + 1] = (byte) (value >>> 16);
+        target[offset + 2] = (byte) (value >>> 8);
+        target[offset + 3] = (byte) value;
+    }
+}
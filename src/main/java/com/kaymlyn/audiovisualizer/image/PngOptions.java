@@ -0,0 +1,50 @@
+package com.kaymlyn.audiovisualizer.image;
+
+/**
+ * Settings of the PNG encoder.
+ *
+ * @param compressionLevel deflate level, 0 to 9, or -1 for the deflate default
+ * @param filter           row filter applied before compression
+ * @param parallelism      deflate blocks compressed at once, 1 compresses on the calling thread
+ * @param palette          write images with at most 256 colors as indexed PNGs
+ */
+public record PngOptions(int compressionLevel, Filter filter, int parallelism, boolean palette) {
+
+    //AUTO is NONE for indexed images, which rarely gain from filtering, and ADAPTIVE for everything else. ADAPTIVE
+    //picks the filter with the smallest sum of absolute differences per row.
+    public enum Filter { AUTO, NONE, SUB, UP, AVERAGE, PAETH, ADAPTIVE }
+
+    //level 4, as ImageIO's writer uses, compresses filtered waveforms as well as level 6 in far less time
+    public static final int DEFAULT_COMPRESSION_LEVEL = 4;
+
+    public static final PngOptions DEFAULT = new PngOptions(DEFAULT_COMPRESSION_LEVEL, Filter.AUTO,
+            Runtime.getRuntime().availableProcessors(), true);
+
+    public PngOptions {
+        if (compressionLevel < -1 || compressionLevel > 9) {
+            throw new IllegalArgumentException("Compression level must be between 0 and 9, or -1.");
+        }
+        if (filter == null) {
+            throw new IllegalArgumentException("A filter is required.");
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1.");
+        }
+    }
+
+    public PngOptions withCompressionLevel(int compressionLevel) {
+        return new PngOptions(compressionLevel, filter, parallelism, palette);
+    }
+
+    public PngOptions withFilter(Filter filter) {
+        return new PngOptions(compressionLevel, filter, parallelism, palette);
+    }
+
+    public PngOptions withParallelism(int parallelism) {
+        return new PngOptions(compressionLevel, filter, parallelism, palette);
+    }
+
+    public PngOptions withPalette(boolean palette) {
+        return new PngOptions(compressionLevel, filter, parallelism, palette);
+    }
+}
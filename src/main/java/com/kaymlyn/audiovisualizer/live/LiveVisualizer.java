@@ -0,0 +1,441 @@
+package com.kaymlyn.audiovisualizer.live;
+
+import com.kaymlyn.audiovisualizer.audio.AudioProcessor.Canvas;
+import com.kaymlyn.audiovisualizer.audio.AudioProcessor.InfoBlock;
+import com.kaymlyn.audiovisualizer.audio.FrameSink;
+import com.kaymlyn.audiovisualizer.audio.PcmDecoder;
+import com.kaymlyn.audiovisualizer.audio.StaticLayer;
+import com.kaymlyn.audiovisualizer.audio.power.Stft;
+import com.kaymlyn.audiovisualizer.audio.wave.AudioWaveformRenderer;
+import com.kaymlyn.audiovisualizer.audio.wave.Fading.Fade;
+import com.kaymlyn.audiovisualizer.audio.wave.PeakPyramid;
+import com.kaymlyn.audiovisualizer.image.ImageOutput;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.TargetDataLine;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Visualizes an unbounded PCM stream, such as a TargetDataLine or audio piped into stdin, as it arrives. A capture
+ * thread decodes the stream in small reads into a {@link SampleRing}; the rendering thread wakes at a fixed frame rate,
+ * takes the newest window of audio out of the ring and renders it as a scrolling waveform, a spectrum, or both.
+ * <p>
+ * Latency wins over completeness. A frame is measured from the arrival of the newest sample it shows to its hand off to
+ * the sink; one finishing past the latency budget is dropped instead of delivered late, and ticks missed while a frame
+ * took too long are skipped rather than caught up on. The capture never waits for the renderer, the ring simply
+ * overwrites audio nobody looked at.
+ * <pre>
+ * try (LiveVisualizer live = new LiveVisualizer(LiveVisualizer.openLine(format), canvas, null)
+ *         .withWaveform((index, frame) -> display.show(frame))) {
+ *     live.run();
+ * }
+ * </pre>
+ */
+public class LiveVisualizer implements AutoCloseable {
+
+    public static final int DEFAULT_FPS = 30;
+    public static final Duration DEFAULT_LATENCY = Duration.ofMillis(100);
+    public static final double DEFAULT_WINDOW_SECONDS = 2;
+    public static final double DEFAULT_DYNAMIC_RANGE = 80;
+
+    //the capture reads this much audio at a time, which bounds how stale the newest sample can be
+    private static final double READ_SECONDS = 0.005;
+    private static final double SPECTRUM_LOWEST_FREQUENCY = 20;
+
+    private final AudioInputStream source;
+    private final AudioFormat format;
+    private final Canvas canvas;
+    private final InfoBlock info;
+    private int fps = DEFAULT_FPS;
+    private long latencyNanos = DEFAULT_LATENCY.toNanos();
+    private double windowSeconds = DEFAULT_WINDOW_SECONDS;
+    private Fade fade = new Fade(0, 0, 0);
+    private Stft stft = Stft.DEFAULT;
+    private double dynamicRange = DEFAULT_DYNAMIC_RANGE;
+    private boolean paced;
+    private FrameSink waveformSink;
+    private FrameSink spectrumSink;
+
+    private volatile boolean running;
+    private volatile boolean captureEnded;
+    private volatile Throwable captureFailure;
+
+    //written by the rendering thread only
+    private volatile long rendered;
+    private volatile long dropped;
+    private volatile long skipped;
+    private volatile long maxLatencyNanos;
+
+    /**
+     * @param rendered       frames handed to the sinks
+     * @param dropped        frames rendered but discarded for exceeding the latency budget
+     * @param skipped        ticks not rendered at all because an earlier frame ran into them
+     * @param maxLatency     highest latency of a delivered frame
+     */
+    public record Stats(long rendered, long dropped, long skipped, Duration maxLatency) { }
+
+    public LiveVisualizer(AudioInputStream source, Canvas canvas, InfoBlock info) {
+        if (!PcmDecoder.supports(source.getFormat())) {
+            throw new IllegalArgumentException("Live mode needs a PCM stream, got " + source.getFormat());
+        }
+        this.source = source;
+        this.format = source.getFormat();
+        this.canvas = canvas;
+        this.info = info;
+    }
+
+    public LiveVisualizer withFps(int fps) {
+        if (fps < 1) {
+            throw new IllegalArgumentException("At least one frame per second is required.");
+        }
+        this.fps = fps;
+        return this;
+    }
+
+    //longest a frame may take from the newest sample it shows to its sink, later frames are dropped
+    public LiveVisualizer withLatency(Duration latency) {
+        if (latency.isNegative() || latency.isZero()) {
+            throw new IllegalArgumentException("Latency budget must be positive.");
+        }
+        this.latencyNanos = latency.toNanos();
+        return this;
+    }
+
+    //seconds of audio across the waveform
+    public LiveVisualizer withWindow(double seconds) {
+        if (!(seconds > 0)) {
+            throw new IllegalArgumentException("The window must be positive.");
+        }
+        this.windowSeconds = seconds;
+        return this;
+    }
+
+    public LiveVisualizer withFade(Fade fade) {
+        this.fade = fade;
+        return this;
+    }
+
+    public LiveVisualizer withStft(Stft stft) {
+        this.stft = stft;
+        return this;
+    }
+
+    //decibels below full scale still drawn by the spectrum
+    public LiveVisualizer withDynamicRange(double decibels) {
+        if (!(decibels > 0)) {
+            throw new IllegalArgumentException("The dynamic range must be positive.");
+        }
+        this.dynamicRange = decibels;
+        return this;
+    }
+
+    //reads the source no faster than real time, for files standing in for a live source
+    public LiveVisualizer withPacing(boolean paced) {
+        this.paced = paced;
+        return this;
+    }
+
+    public LiveVisualizer withWaveform(FrameSink sink) {
+        this.waveformSink = sink;
+        return this;
+    }
+
+    public LiveVisualizer withSpectrum(FrameSink sink) {
+        this.spectrumSink = sink;
+        return this;
+    }
+
+    /**
+     * Captures and renders until the stream ends or {@link #close()} is called from another thread. A failing sink
+     * ends the run with its exception, as does a failing capture. Frames are indexed by their tick, counted from the
+     * start of the run, so a sink sees a gap wherever ticks were skipped or frames dropped.
+     */
+    public void run() throws IOException {
+        if (waveformSink == null && spectrumSink == null) {
+            throw new IllegalStateException("Neither a waveform nor a spectrum sink is set.");
+        }
+        int channels = format.getChannels();
+        int windowFrames = (int) Math.max(canvas.imageBounds().width, Math.ceil(windowSeconds * format.getSampleRate()));
+        int readFrames = (int) Math.max(1, READ_SECONDS * format.getSampleRate());
+        SampleRing ring = new SampleRing((Math.max(windowFrames, stft.size()) + 2 * readFrames) * channels, channels);
+
+        running = true;
+        captureEnded = false;
+        Thread capture = Thread.ofPlatform().name("live-capture").daemon().start(() -> capture(ring, readFrames));
+        try {
+            render(ring, windowFrames);
+        } finally {
+            running = false;
+            capture.interrupt();
+        }
+        if (captureFailure != null) {
+            throw new IOException("Unable to capture audio.", captureFailure);
+        }
+    }
+
+    public Stats stats() {
+        return new Stats(rendered, dropped, skipped, Duration.ofNanos(maxLatencyNanos));
+    }
+
+    //stops a run and closes the source
+    @Override
+    public void close() throws IOException {
+        running = false;
+        source.close();
+    }
+
+    private void capture(SampleRing ring, int readFrames) {
+        int frameSize = format.getFrameSize();
+        byte[] chunk = new byte[readFrames * frameSize];
+        int[] samples = new int[readFrames * format.getChannels()];
+        long start = System.nanoTime();
+        long framesRead = 0;
+        try {
+            while (running) {
+                int filled = 0;
+                while (filled < chunk.length) {
+                    int read = source.read(chunk, filled, chunk.length - filled);
+                    if (read < 0) {
+                        break;
+                    }
+                    filled += read;
+                }
+                int whole = filled - filled % frameSize;
+                if (whole > 0) {
+                    if (paced) {
+                        long due = start + (long) (framesRead * 1e9 / format.getFrameRate());
+                        LockSupport.parkNanos(due - System.nanoTime());
+                    }
+                    ring.write(samples, PcmDecoder.decode(format, chunk, 0, whole, samples));
+                    framesRead += whole / frameSize;
+                }
+                if (filled < chunk.length) {
+                    return;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            //a closed source ends the capture on purpose
+            if (running) {
+                captureFailure = e;
+            }
+        } finally {
+            captureEnded = true;
+        }
+    }
+
+    private void render(SampleRing ring, int windowFrames) throws IOException {
+        long period = 1_000_000_000L / fps;
+        int channels = format.getChannels();
+        int[] window = new int[Math.max(windowFrames, stft.size()) * channels];
+        SpectrumColumns columns = spectrumSink == null ? null : new SpectrumColumns();
+        long next = System.nanoTime();
+        //number of the tick due at next
+        long tick = 0;
+        while (running && !captureEnded) {
+            long now = System.nanoTime();
+            if (now < next) {
+                LockSupport.parkNanos(next - now);
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException("Interrupted while waiting for the next frame.");
+                }
+                continue;
+            }
+            //ticks that passed while the previous frame rendered are given up
+            long late = (now - next) / period;
+            skipped += late;
+            int frameIndex = (int) (tick + late);
+            tick += late + 1;
+            next += (late + 1) * period;
+
+            long newest = ring.lastWriteNanos();
+            if (newest == 0) {
+                continue;
+            }
+            int length = ring.latest(window, window.length);
+            BufferedImage waveform = waveformSink == null ? null : renderWaveform(window, length, windowFrames);
+            BufferedImage spectrum = columns == null ? null : columns.render(window, length);
+
+            long latency = System.nanoTime() - newest;
+            if (latency > latencyNanos) {
+                dropped++;
+                continue;
+            }
+            if (waveform != null) {
+                waveformSink.accept(frameIndex, waveform);
+            }
+            if (spectrum != null) {
+                spectrumSink.accept(frameIndex, spectrum);
+            }
+            rendered++;
+            maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+        }
+    }
+
+    //the newest windowFrames of the window, the latest sample at the right edge
+    private BufferedImage renderWaveform(int[] window, int length, int windowFrames) {
+        int channels = format.getChannels();
+        int frames = length / channels;
+        int offset = Math.max(0, frames - windowFrames) * channels;
+        double framesPerColumn = (double) windowFrames / canvas.imageBounds().width;
+
+        PeakPyramid peaks = new PeakPyramid((int) Math.max(1, framesPerColumn), channels);
+        int[] shown = offset == 0 ? window : Arrays.copyOfRange(window, offset, length);
+        peaks.accept(shown, length - offset);
+        peaks.finish();
+        int columns = (int) Math.ceil(peaks.frameCount() / framesPerColumn);
+        return new AudioWaveformRenderer(peaks, canvas, info, fade)
+                .withZoom(framesPerColumn)
+                .renderToImage(columns);
+    }
+
+    //a bar per column over logarithmically spaced frequencies, from SPECTRUM_LOWEST_FREQUENCY up to Nyquist
+    private final class SpectrumColumns {
+        private final int width = canvas.imageBounds().width;
+        private final int height = canvas.imageBounds().height;
+        private final int[] firstBin = new int[width];
+        private final int[] lastBin = new int[width];
+        private final double[] signal = new double[stft.size()];
+        private final double[] re = new double[stft.size()];
+        private final double[] im = new double[stft.size()];
+        private final float[] power = new float[stft.bins()];
+        private final double fullScalePower = PcmDecoder.fullScale(format) * PcmDecoder.fullScale(format);
+        private final int barColor = 0xFF000000 | canvas.initialColor().getRGB();
+
+        private SpectrumColumns() {
+            double nyquist = format.getSampleRate() / 2;
+            double binWidth = format.getSampleRate() / stft.size();
+            double lowest = Math.min(SPECTRUM_LOWEST_FREQUENCY, nyquist / 2);
+            for (int x = 0; x < width; x++) {
+                double from = lowest * Math.pow(nyquist / lowest, (double) x / width);
+                double to = lowest * Math.pow(nyquist / lowest, (double) (x + 1) / width);
+                firstBin[x] = Math.min(stft.bins() - 1, (int) (from / binWidth));
+                lastBin[x] = Math.min(stft.bins(), Math.max(firstBin[x] + 1, (int) Math.ceil(to / binWidth)));
+            }
+        }
+
+        private BufferedImage render(int[] window, int length) {
+            int channels = format.getChannels();
+            int frames = length / channels;
+            int first = Math.max(0, frames - stft.size());
+            for (int i = 0; i < stft.size(); i++) {
+                double mixed = 0;
+                if (first + i < frames) {
+                    for (int channel = 0, sample = (first + i) * channels; channel < channels; channel++) {
+                        mixed += window[sample + channel];
+                    }
+                    mixed /= channels;
+                }
+                signal[i] = mixed;
+            }
+            stft.transformFrame(signal, stft.size(), 0, re, im, power, 0);
+
+            StaticLayer layer = StaticLayer.of(canvas, info);
+            BufferedImage image = layer.newImage();
+            int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            for (int x = 0; x < width; x++) {
+                float columnPower = 0;
+                for (int bin = firstBin[x]; bin < lastBin[x]; bin++) {
+                    columnPower = Math.max(columnPower, power[bin]);
+                }
+                double decibels = 10 * Math.log10(columnPower / fullScalePower);
+                int bar = (int) Math.round(Math.clamp((decibels + dynamicRange) / dynamicRange, 0, 1) * height);
+                for (int y = height - bar; y < height; y++) {
+                    pixels[y * width + x] = barColor;
+                }
+            }
+            layer.copyInsetInto(pixels);
+            return image;
+        }
+    }
+
+    //an open and started line capturing in format, as a stream
+    public static AudioInputStream openLine(AudioFormat format) throws LineUnavailableException {
+        TargetDataLine line = AudioSystem.getTargetDataLine(format);
+        //a small device buffer keeps the capture latency down
+        line.open(format, Math.max(format.getFrameSize(),
+                (int) (READ_SECONDS * 4 * format.getFrameRate()) * format.getFrameSize()));
+        line.start();
+        return new AudioInputStream(line);
+    }
+
+    //LiveVisualizer <output directory> [--line rate] [--fps n] [--latency-ms n] [--window-seconds n] [--paced true]
+    //reads a WAVE, AIFF or AU stream from stdin unless --line is given, and keeps replacing waveform.png and
+    //spectrum.png in the output directory
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: LiveVisualizer <output directory> [--line rate] [--fps n] [--latency-ms n]"
+                    + " [--window-seconds n] [--paced true]");
+            System.exit(2);
+        }
+        Path directory = Path.of(args[0]);
+        Files.createDirectories(directory);
+
+        Float lineRate = null;
+        int fps = DEFAULT_FPS;
+        Duration latency = DEFAULT_LATENCY;
+        double window = DEFAULT_WINDOW_SECONDS;
+        boolean paced = false;
+        for (int i = 1; i < args.length; i += 2) {
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            }
+            switch (args[i]) {
+                case "--line" -> lineRate = Float.parseFloat(args[i + 1]);
+                case "--fps" -> fps = Integer.parseInt(args[i + 1]);
+                case "--latency-ms" -> latency = Duration.ofMillis(Long.parseLong(args[i + 1]));
+                case "--window-seconds" -> window = Double.parseDouble(args[i + 1]);
+                case "--paced" -> paced = Boolean.parseBoolean(args[i + 1]);
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        AudioInputStream source;
+        try {
+            source = lineRate != null
+                    ? openLine(new AudioFormat(lineRate, 16, 2, true, false))
+                    : AudioSystem.getAudioInputStream(new BufferedInputStream(System.in));
+        } catch (UnsupportedAudioFileException e) {
+            throw new IOException("stdin is not a WAVE, AIFF or AU stream.", e);
+        }
+
+        Canvas canvas = new Canvas(new Rectangle(600, 200), new Color(20, 20, 20), new Color(0, 0, 255),
+                new Color(71, 4, 2));
+        InfoBlock info = new InfoBlock(new Font("serif", Font.PLAIN, 12), Color.white, Color.blue, "live");
+        ImageOutput output = ImageOutput.DEFAULT.withFormat("png");
+        try (LiveVisualizer live = new LiveVisualizer(source, canvas, info)
+                .withFps(fps)
+                .withLatency(latency)
+                .withWindow(window)
+                .withPacing(paced)
+                .withWaveform((index, frame) -> replace(output, frame, directory.resolve("waveform.png")))
+                .withSpectrum((index, frame) -> replace(output, frame, directory.resolve("spectrum.png")))) {
+            live.run();
+            System.out.println(live.stats());
+        }
+    }
+
+    //writes next to target and moves it into place, so a display polling the file never sees half an image
+    private static void replace(ImageOutput output, BufferedImage frame, Path target) throws IOException {
+        Path partial = target.resolveSibling(target.getFileName() + ".part");
+        output.write(frame, new File(partial.toString()));
+        Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
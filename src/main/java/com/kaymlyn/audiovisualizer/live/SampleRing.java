@@ -0,0 +1,120 @@
+package com.kaymlyn.audiovisualizer.live;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Lock free ring of the most recent interleaved samples, written by one thread and read by another. The writer never
+ * waits: once the ring is full it overwrites the oldest samples, so a reader that falls behind loses old audio instead
+ * of holding up the capture.
+ * <p>
+ * The writer announces how far it is about to write before copying, and publishes the new sample count with release
+ * semantics afterwards. A reader copies the newest published samples and then checks that no write, finished or still
+ * in progress, has reached far enough to overwrite what it copied, retrying if one has, the way a seqlock is read.
+ */
+public final class SampleRing {
+
+    private static final VarHandle WRITTEN;
+    private static final VarHandle CLAIMED;
+    private static final VarHandle WRITE_NANOS;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            WRITTEN = lookup.findVarHandle(SampleRing.class, "written", long.class);
+            CLAIMED = lookup.findVarHandle(SampleRing.class, "claimed", long.class);
+            WRITE_NANOS = lookup.findVarHandle(SampleRing.class, "writeNanos", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final int[] ring;
+    private final int mask;
+    private final int channels;
+    //samples written since the start, only ever advanced by the writer
+    private long written;
+    //end of the write in progress, announced before any of its samples are stored
+    private long claimed;
+    //System.nanoTime() of the last write
+    private long writeNanos;
+
+    //a ring holding at least capacity samples of audio with the given number of channels
+    public SampleRing(int capacity, int channels) {
+        if (capacity < 1 || channels < 1) {
+            throw new IllegalArgumentException("Capacity and channel count must be positive.");
+        }
+        if (capacity > 1 << 30) {
+            throw new IllegalArgumentException("A ring holds at most 2^30 samples.");
+        }
+        int size = Integer.highestOneBit(Math.max(capacity, channels) - 1) << 1;
+        this.ring = new int[Math.max(2, size)];
+        this.mask = ring.length - 1;
+        this.channels = channels;
+    }
+
+    public int capacity() {
+        return ring.length;
+    }
+
+    public int channels() {
+        return channels;
+    }
+
+    //appends length samples, called by the writing thread only
+    public void write(int[] samples, int length) {
+        long position = written;
+        //only the newest ring.length samples could ever be read back
+        int skip = Math.max(0, length - ring.length);
+        CLAIMED.setOpaque(this, position + length);
+        VarHandle.storeStoreFence();
+        position += skip;
+        for (int copied = skip; copied < length; ) {
+            int index = (int) (position & mask);
+            int run = Math.min(length - copied, ring.length - index);
+            System.arraycopy(samples, copied, ring, index, run);
+            copied += run;
+            position += run;
+        }
+        WRITE_NANOS.setOpaque(this, System.nanoTime());
+        WRITTEN.setRelease(this, position);
+    }
+
+    public long written() {
+        return (long) WRITTEN.getAcquire(this);
+    }
+
+    //System.nanoTime() of the last write, 0 before the first one
+    public long lastWriteNanos() {
+        return (long) WRITE_NANOS.getOpaque(this);
+    }
+
+    /**
+     * Copies the newest whole frames, at most length samples, to the start of target. Fewer samples are copied while
+     * the ring holds less audio than that.
+     *
+     * @return the number of samples copied, a multiple of the channel count.
+     */
+    public int latest(int[] target, int length) {
+        if (length > ring.length) {
+            throw new IllegalArgumentException("At most " + ring.length + " samples can be read at once.");
+        }
+        while (true) {
+            long end = written();
+            end -= end % channels;
+            long start = Math.max(0, end - (length - length % channels));
+            int count = (int) (end - start);
+            for (int copied = 0; copied < count; ) {
+                int index = (int) ((start + copied) & mask);
+                int run = Math.min(count - copied, ring.length - index);
+                System.arraycopy(ring, index, target, copied, run);
+                copied += run;
+            }
+            //the copy must be complete before the claim is checked
+            VarHandle.acquireFence();
+            if ((long) CLAIMED.getOpaque(this) - start <= ring.length) {
+                return count;
+            }
+        }
+    }
+}
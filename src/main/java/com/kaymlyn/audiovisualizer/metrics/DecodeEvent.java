@@ -0,0 +1,23 @@
+package com.kaymlyn.audiovisualizer.metrics;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("audiovisualizer.Decode")
+@Label("Decode")
+@Description("PCM bytes of one chunk decoded into samples. Items are samples.")
+public final class DecodeEvent extends StageEvent {
+
+    @Label("Format")
+    String format;
+
+    public DecodeEvent(String format) {
+        this.format = format;
+    }
+
+    @Override
+    Metrics.Stage stage() {
+        return Metrics.Stage.DECODE;
+    }
+}
@@ -0,0 +1,31 @@
+package com.kaymlyn.audiovisualizer.metrics;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("audiovisualizer.Envelope")
+@Label("Envelope")
+@Description("Peak, RMS and loudness envelope of every channel. Items are audio frames.")
+public final class EnvelopeEvent extends StageEvent {
+
+    @Label("Channels")
+    int channels;
+
+    @Label("Bucket Frames")
+    int bucketFrames;
+
+    @Label("K-Weighted")
+    boolean kWeighted;
+
+    public EnvelopeEvent(int channels, int bucketFrames, boolean kWeighted) {
+        this.channels = channels;
+        this.bucketFrames = bucketFrames;
+        this.kWeighted = kWeighted;
+    }
+
+    @Override
+    Metrics.Stage stage() {
+        return Metrics.Stage.ENVELOPE;
+    }
+}
@@ -0,0 +1,27 @@
+package com.kaymlyn.audiovisualizer.metrics;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("audiovisualizer.ImageWrite")
+@Label("Image Write")
+@Description("An image encoded to a file. Items are images, bytes are the size of the file.")
+public final class ImageWriteEvent extends StageEvent {
+
+    @Label("File")
+    String file;
+
+    @Label("Format")
+    String format;
+
+    public ImageWriteEvent(String file, String format) {
+        this.file = file;
+        this.format = format;
+    }
+
+    @Override
+    Metrics.Stage stage() {
+        return Metrics.Stage.IMAGE_WRITE;
+    }
+}
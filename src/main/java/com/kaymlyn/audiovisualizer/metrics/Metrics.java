@@ -0,0 +1,126 @@
+package com.kaymlyn.audiovisualizer.metrics;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running totals per pipeline stage: calls, time, items and bytes, plus the deepest video queue seen. The same
+ * numbers are also emitted per call as JFR events, see {@link StageEvent}; Metrics is for log lines and dashboards
+ * when no recording is running.
+ * <p>
+ * Disabled by default, or enabled with {@code -Daudiovisualizer.metrics=true}. While disabled a stage costs one
+ * volatile read.
+ */
+public final class Metrics {
+
+    //what a stage counts as items: samples for DECODE and NORMALIZE, audio frames for WAVEFORM, STFT frames for
+    //SPECTROGRAM, and images or video frames for the rest
+    public enum Stage { DECODE, NORMALIZE, WAVEFORM, ENVELOPE, SPECTROGRAM, RENDER, IMAGE_WRITE, VIDEO_ENCODE }
+
+    public record Summary(long calls, long nanos, long items, long bytes) {
+        public double seconds() {
+            return nanos / 1e9;
+        }
+
+        public double itemsPerSecond() {
+            return nanos == 0 ? 0 : items / seconds();
+        }
+
+        public double bytesPerSecond() {
+            return nanos == 0 ? 0 : bytes / seconds();
+        }
+    }
+
+    private static final class Totals {
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder items = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+    }
+
+    private static final Totals[] TOTALS = new Totals[Stage.values().length];
+    private static final LongAccumulator MAX_QUEUE_DEPTH = new LongAccumulator(Math::max, 0);
+    private static volatile boolean enabled = Boolean.getBoolean("audiovisualizer.metrics");
+
+    static {
+        for (int i = 0; i < TOTALS.length; i++) {
+            TOTALS[i] = new Totals();
+        }
+    }
+
+    private Metrics() {
+    }
+
+    public static boolean enabled() {
+        return enabled;
+    }
+
+    public static void enable(boolean enable) {
+        enabled = enable;
+    }
+
+    //start time to hand to record, 0 while disabled
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    public static void record(Stage stage, long start, long items, long bytes) {
+        if (!enabled || start == 0) {
+            return;
+        }
+        Totals totals = TOTALS[stage.ordinal()];
+        totals.calls.increment();
+        totals.nanos.add(System.nanoTime() - start);
+        totals.items.add(items);
+        totals.bytes.add(bytes);
+    }
+
+    public static void observeQueueDepth(int depth) {
+        if (enabled) {
+            MAX_QUEUE_DEPTH.accumulate(depth);
+        }
+    }
+
+    public static long maxQueueDepth() {
+        return MAX_QUEUE_DEPTH.get();
+    }
+
+    public static Map<Stage, Summary> snapshot() {
+        Map<Stage, Summary> snapshot = new EnumMap<>(Stage.class);
+        for (Stage stage : Stage.values()) {
+            Totals totals = TOTALS[stage.ordinal()];
+            snapshot.put(stage, new Summary(totals.calls.sum(), totals.nanos.sum(), totals.items.sum(),
+                    totals.bytes.sum()));
+        }
+        return snapshot;
+    }
+
+    public static void reset() {
+        for (Totals totals : TOTALS) {
+            totals.calls.reset();
+            totals.nanos.reset();
+            totals.items.reset();
+            totals.bytes.reset();
+        }
+        MAX_QUEUE_DEPTH.reset();
+    }
+
+    //one line per stage that ran, busiest stage first
+    public static String report() {
+        StringBuilder report = new StringBuilder();
+        snapshot().entrySet().stream()
+                .filter(entry -> entry.getValue().calls() > 0)
+                .sorted((a, b) -> Long.compare(b.getValue().nanos(), a.getValue().nanos()))
+                .forEach(entry -> report.append(String.format(Locale.ROOT,
+                        "%-12s %8d calls %10.3f s %14.1f items/s %10.1f MB/s%n",
+                        entry.getKey(), entry.getValue().calls(), entry.getValue().seconds(),
+                        entry.getValue().itemsPerSecond(), entry.getValue().bytesPerSecond() / (1 << 20))));
+        if (maxQueueDepth() > 0) {
+            report.append("max video queue depth ").append(maxQueueDepth()).append(System.lineSeparator());
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,23 @@
+package com.kaymlyn.audiovisualizer.metrics;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("audiovisualizer.Normalize")
+@Label("Normalize")
+@Description("A peak search or scaling pass over decoded samples. Items are samples.")
+public final class NormalizeEvent extends StageEvent {
+
+    @Label("Operation")
+    String operation;
+
+    public NormalizeEvent(String operation) {
+        this.operation = operation;
+    }
+
+    @Override
+    Metrics.Stage stage() {
+        return Metrics.Stage.NORMALIZE;
+    }
+}
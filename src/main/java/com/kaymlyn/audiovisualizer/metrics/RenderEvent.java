@@ -0,0 +1,35 @@
+package com.kaymlyn.audiovisualizer.metrics;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("audiovisualizer.Render")
+@Label("Render")
+@Description("One frame rasterized into an image. Items are frames, bytes are raster bytes.")
+public final class RenderEvent extends StageEvent {
+
+    @Label("Renderer")
+    String renderer;
+
+    @Label("Frame Index")
+    int frameIndex;
+
+    @Label("Width")
+    int width;
+
+    @Label("Height")
+    int height;
+
+    public RenderEvent(String renderer, int frameIndex, int width, int height) {
+        this.renderer = renderer;
+        this.frameIndex = frameIndex;
+        this.width = width;
+        this.height = height;
+    }
+
+    @Override
+    Metrics.Stage stage() {
+        return Metrics.Stage.RENDER;
+    }
+}
@@ -0,0 +1,27 @@
+package com.kaymlyn.audiovisualizer.metrics;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("audiovisualizer.Spectrogram")
+@Label("Spectrogram")
+@Description("Short time Fourier transform of a mixed down signal. Items are STFT frames.")
+public final class SpectrogramEvent extends StageEvent {
+
+    @Label("Samples")
+    long samples;
+
+    @Label("Bins")
+    int bins;
+
+    public SpectrogramEvent(long samples, int bins) {
+        this.samples = samples;
+        this.bins = bins;
+    }
+
+    @Override
+    Metrics.Stage stage() {
+        return Metrics.Stage.SPECTROGRAM;
+    }
+}
@@ -0,0 +1,28 @@
+package com.kaymlyn.audiovisualizer.metrics;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("audiovisualizer.VideoFrame")
+@Label("Video Frame")
+@Description("One frame handed to the video encoder. Items are frames.")
+public final class VideoFrameEvent extends StageEvent {
+
+    @Label("Frame Index")
+    int frameIndex;
+
+    @Label("Queue Depth")
+    @Description("Rendered frames waiting for the encoder when this one was taken")
+    int queueDepth;
+
+    public VideoFrameEvent(int frameIndex, int queueDepth) {
+        this.frameIndex = frameIndex;
+        this.queueDepth = queueDepth;
+    }
+
+    @Override
+    Metrics.Stage stage() {
+        return Metrics.Stage.VIDEO_ENCODE;
+    }
+}
@@ -0,0 +1,27 @@
+package com.kaymlyn.audiovisualizer.metrics;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("audiovisualizer.Waveform")
+@Label("Waveform")
+@Description("A peak pyramid built from a stream, including the Decode events of its chunks. Items are audio frames.")
+public final class WaveformEvent extends StageEvent {
+
+    @Label("Format")
+    String format;
+
+    @Label("Channels")
+    int channels;
+
+    public WaveformEvent(String format, int channels) {
+        this.format = format;
+        this.channels = channels;
+    }
+
+    @Override
+    Metrics.Stage stage() {
+        return Metrics.Stage.WAVEFORM;
+    }
+}
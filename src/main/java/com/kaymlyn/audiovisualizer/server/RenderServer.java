@@ -0,0 +1,365 @@
+package com.kaymlyn.audiovisualizer.server;
+
+import com.kaymlyn.audiovisualizer.audio.AudioProcessor;
+import com.kaymlyn.audiovisualizer.audio.AudioProcessor.Canvas;
+import com.kaymlyn.audiovisualizer.audio.AudioProcessor.InfoBlock;
+import com.kaymlyn.audiovisualizer.audio.wave.AudioWaveformRenderer;
+import com.kaymlyn.audiovisualizer.audio.wave.Fading.Fade;
+import com.kaymlyn.audiovisualizer.audio.wave.PeakCache;
+import com.kaymlyn.audiovisualizer.image.ImageOutput;
+import com.kaymlyn.audiovisualizer.metrics.Metrics;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Renders waveforms over HTTP for tools that would otherwise start a JVM and decode the audio for every image. The
+ * server only listens on the loopback interface and only serves audio files below its root directory.
+ * <pre>
+ * GET /waveform?file=music/track.wav&amp;width=600&amp;height=200&amp;fade=1,1,1&amp;frame=600
+ * GET /metrics
+ * </pre>
+ * Waveform parameters, all but file optional: width and height of the canvas; background, color and shift as hex RGB;
+ * fade as three comma separated rates; frame, the column the image ends at, by default the canvas width; zoom in
+ * audio frames per column; info, a text inset; format, png by default. start and seconds render only that time window
+ * of the file, see {@link AudioProcessor#waveformForWindow}.
+ * <p>
+ * Decoded waveforms stay in a {@link WaveformCache}. Identical requests arriving while one is being rendered wait for
+ * that render instead of starting their own.
+ */
+public class RenderServer {
+
+    public static final int DEFAULT_PORT = 8321;
+
+    private final Path root;
+    private final WaveformCache waveforms;
+    private final Map<String, CompletableFuture<Image>> rendering = new ConcurrentHashMap<>();
+    private Semaphore slots = new Semaphore(Runtime.getRuntime().availableProcessors(), true);
+    private ImageOutput output = ImageOutput.DEFAULT;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    private record Image(byte[] bytes, String contentType) { }
+
+    //a request the client got wrong, answered with its status code
+    private static class RequestException extends RuntimeException {
+        private final int status;
+
+        RequestException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    public RenderServer(Path root, WaveformCache waveforms) {
+        this.root = root.toAbsolutePath().normalize();
+        this.waveforms = waveforms;
+    }
+
+    //renders running at once, further requests wait for a slot
+    public RenderServer withConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("At least one render must be allowed at a time.");
+        }
+        this.slots = new Semaphore(concurrency, true);
+        return this;
+    }
+
+    public RenderServer withOutput(ImageOutput output) {
+        this.output = output;
+        return this;
+    }
+
+    //starts listening on the loopback interface, port 0 picks a free port; returns the address listened on
+    public synchronized InetSocketAddress start(int port) throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("The server is already running.");
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.createContext("/waveform", exchange -> handle(exchange, this::waveform));
+        server.createContext("/metrics", exchange -> handle(exchange, this::metrics));
+        server.start();
+        return server.getAddress();
+    }
+
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.close();
+            server = null;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+        Image respond(Map<String, String> parameters) throws Exception;
+    }
+
+    private void handle(HttpExchange exchange, Handler handler) throws IOException {
+        try (exchange) {
+            int status;
+            Image response;
+            try {
+                if (!exchange.getRequestMethod().equals("GET") && !exchange.getRequestMethod().equals("HEAD")) {
+                    throw new RequestException(405, "Only GET and HEAD are supported.");
+                }
+                response = handler.respond(parameters(exchange.getRequestURI().getRawQuery()));
+                status = 200;
+            } catch (RequestException e) {
+                status = e.status;
+                response = text(e.getMessage());
+            } catch (IllegalArgumentException e) {
+                status = 400;
+                response = text(e.getMessage());
+            } catch (NoSuchFileException | FileNotFoundException e) {
+                status = 404;
+                response = text("No such file: " + e.getMessage());
+            } catch (UnsupportedAudioFileException e) {
+                status = 415;
+                response = text(e.getMessage());
+            } catch (Exception e) {
+                status = 500;
+                response = text(e.toString());
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", response.contentType());
+            boolean head = exchange.getRequestMethod().equals("HEAD");
+            exchange.sendResponseHeaders(status, head ? -1 : response.bytes().length);
+            if (!head) {
+                try (OutputStream body = exchange.getResponseBody()) {
+                    body.write(response.bytes());
+                }
+            }
+        }
+    }
+
+    private Image waveform(Map<String, String> parameters) throws Exception {
+        Path file = resolve(required(parameters, "file"));
+        //the same file under different spellings is the same request
+        Map<String, String> canonical = new TreeMap<>(parameters);
+        canonical.put("file", file.toString());
+        canonical.put("modified", Long.toString(Files.getLastModifiedTime(file).toMillis()));
+        String key = canonical.toString();
+
+        CompletableFuture<Image> render = new CompletableFuture<>();
+        CompletableFuture<Image> running = rendering.putIfAbsent(key, render);
+        if (running != null) {
+            return join(running);
+        }
+        try {
+            slots.acquire();
+            try {
+                render.complete(render(file, parameters));
+            } finally {
+                slots.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            render.completeExceptionally(e);
+        } catch (Throwable e) {
+            render.completeExceptionally(e);
+        } finally {
+            rendering.remove(key, render);
+        }
+        return join(render);
+    }
+
+    private Image render(Path file, Map<String, String> parameters) throws IOException, UnsupportedAudioFileException {
+        int width = integer(parameters, "width", 600);
+        int height = integer(parameters, "height", 200);
+        if (width < 1 || height < 1 || (long) width * height > 64L * 1024 * 1024) {
+            throw new IllegalArgumentException("Canvas must be between 1x1 and 64 megapixels.");
+        }
+        Canvas canvas = new Canvas(new Rectangle(width, height), color(parameters, "background", "141414"),
+                color(parameters, "color", "0000ff"), color(parameters, "shift", "470402"));
+        InfoBlock info = parameters.containsKey("info")
+                ? new InfoBlock(new Font("serif", Font.PLAIN, 12), Color.white, Color.blue, parameters.get("info"))
+                : null;
+        Fade fade = fade(parameters.getOrDefault("fade", "0,0,0"));
+        String format = parameters.getOrDefault("format", "png").toLowerCase();
+        if (!ImageOutput.supports(format)) {
+            throw new IllegalArgumentException("No image writer for format " + format + ".");
+        }
+
+        AudioWaveformRenderer renderer;
+        if (parameters.containsKey("start") || parameters.containsKey("seconds")) {
+            renderer = new AudioProcessor(canvas)
+                    .withInfo(info)
+                    .waveformForWindow(file.toFile(), decimal(parameters, "start", 0),
+                            decimal(parameters, "seconds", 30))
+                    .generate();
+        } else {
+            renderer = new AudioWaveformRenderer(waveforms.peaks(file), canvas, info);
+        }
+        renderer.withFade(fade);
+        if (parameters.containsKey("zoom")) {
+            renderer.withZoom(decimal(parameters, "zoom", 1));
+        }
+
+        BufferedImage image = renderer.renderToImage(integer(parameters, "frame", width));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        output.write(image, format, bytes);
+        return new Image(bytes.toByteArray(), switch (format) {
+            case "png", "gif", "bmp" -> "image/" + format;
+            case "jpg", "jpeg" -> "image/jpeg";
+            default -> "application/octet-stream";
+        });
+    }
+
+    private Image metrics(Map<String, String> parameters) {
+        return text(waveforms.stats() + "\n" + (Metrics.enabled() ? Metrics.report() : "metrics disabled\n"));
+    }
+
+    //the file below root the parameter names, anything escaping root is refused, whether by .. or by a symbolic link
+    private Path resolve(String file) throws IOException {
+        if (!root.resolve(file).normalize().startsWith(root)) {
+            throw new RequestException(403, "Files outside " + root + " are not served.");
+        }
+        Path resolved;
+        try {
+            resolved = root.resolve(file).toRealPath();
+        } catch (NoSuchFileException e) {
+            throw new NoSuchFileException(file);
+        }
+        if (!resolved.startsWith(root.toRealPath())) {
+            throw new RequestException(403, "Files outside " + root + " are not served.");
+        }
+        if (!Files.isRegularFile(resolved)) {
+            throw new NoSuchFileException(file);
+        }
+        return resolved;
+    }
+
+    private static Map<String, String> parameters(String query) {
+        Map<String, String> parameters = new TreeMap<>();
+        if (query == null || query.isEmpty()) {
+            return parameters;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals), StandardCharsets.UTF_8);
+            String value = equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+            parameters.put(name, value);
+        }
+        return parameters;
+    }
+
+    private static String required(Map<String, String> parameters, String name) {
+        String value = parameters.get(name);
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("Missing parameter " + name + ".");
+        }
+        return value;
+    }
+
+    private static int integer(Map<String, String> parameters, String name, int fallback) {
+        String value = parameters.get(name);
+        try {
+            return value == null ? fallback : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Parameter " + name + " must be a whole number.");
+        }
+    }
+
+    private static double decimal(Map<String, String> parameters, String name, double fallback) {
+        String value = parameters.get(name);
+        try {
+            return value == null ? fallback : Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Parameter " + name + " must be a number.");
+        }
+    }
+
+    private static Color color(Map<String, String> parameters, String name, String fallback) {
+        String value = parameters.getOrDefault(name, fallback);
+        try {
+            return new Color(Integer.parseInt(value.startsWith("#") ? value.substring(1) : value, 16));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Parameter " + name + " must be a hex RGB color.");
+        }
+    }
+
+    private static Fade fade(String value) {
+        String[] rates = value.split(",");
+        if (rates.length != 3) {
+            throw new IllegalArgumentException("Parameter fade must be three comma separated rates.");
+        }
+        try {
+            return new Fade(Double.parseDouble(rates[0]), Double.parseDouble(rates[1]), Double.parseDouble(rates[2]));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Parameter fade must be three comma separated rates.");
+        }
+    }
+
+    private static Image text(String message) {
+        return new Image(String.valueOf(message).getBytes(StandardCharsets.UTF_8), "text/plain; charset=utf-8");
+    }
+
+    private static Image join(CompletableFuture<Image> render) throws Exception {
+        try {
+            return render.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    //RenderServer [--port n] [--root directory] [--memory-mb n] [--concurrency n] [--cache directory] [--cache-mb n]
+    //[--metrics true]
+    public static void main(String[] args) throws Exception {
+        int port = DEFAULT_PORT;
+        Path root = Path.of("");
+        long memory = 256L << 20;
+        int concurrency = Runtime.getRuntime().availableProcessors();
+        Path cacheDirectory = null;
+        long cacheBytes = 256L << 20;
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            }
+            switch (args[i]) {
+                case "--port" -> port = Integer.parseInt(args[i + 1]);
+                case "--root" -> root = Path.of(args[i + 1]);
+                case "--memory-mb" -> memory = Long.parseLong(args[i + 1]) << 20;
+                case "--concurrency" -> concurrency = Integer.parseInt(args[i + 1]);
+                case "--cache" -> cacheDirectory = Path.of(args[i + 1]);
+                case "--cache-mb" -> cacheBytes = Long.parseLong(args[i + 1]) << 20;
+                case "--metrics" -> Metrics.enable(Boolean.parseBoolean(args[i + 1]));
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        PeakCache cache = cacheDirectory == null ? null : new PeakCache(cacheDirectory, cacheBytes);
+        RenderServer server = new RenderServer(root, new WaveformCache(memory, cache)).withConcurrency(concurrency);
+        InetSocketAddress address = server.start(port);
+        System.out.println("Serving " + server.root + " on http://" + address.getHostString() + ":" + address.getPort());
+    }
+}
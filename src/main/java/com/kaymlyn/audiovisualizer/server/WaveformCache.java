@@ -0,0 +1,168 @@
+package com.kaymlyn.audiovisualizer.server;
+
+import com.kaymlyn.audiovisualizer.audio.AudioProcessor;
+import com.kaymlyn.audiovisualizer.audio.decode.AudioDecoders;
+import com.kaymlyn.audiovisualizer.audio.wave.PeakCache;
+import com.kaymlyn.audiovisualizer.audio.wave.PeakPyramid;
+import com.kaymlyn.audiovisualizer.audio.wave.Waveform;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Decoded waveforms kept in memory, least recently used first out once their peak pyramids exceed the byte budget. The
+ * complete pyramid of a file does not depend on the canvas, so one entry serves every size, color and zoom.
+ * <p>
+ * Concurrent requests for a file that is not loaded yet share a single decode. A file that changed on disk since it
+ * was loaded is decoded again. Decodes in flight are admitted by the size of the pyramid they are expected to build,
+ * together staying within the budget as well; a pyramid larger than the whole budget is decoded alone and served but
+ * not kept.
+ */
+public class WaveformCache {
+
+    //the canvas plays no part in a complete pyramid, any will do for decoding
+    private static final AudioProcessor.Canvas DECODE_CANVAS =
+            new AudioProcessor.Canvas(new Rectangle(1, 1), Color.black, Color.black, Color.black);
+
+    private final long budget;
+    //KiB of expected pyramids that may be decoding at once
+    private final int budgetKib;
+    private final Semaphore decoding;
+    private final PeakCache diskCache;
+    private final LinkedHashMap<Key, PeakPyramid> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Key, CompletableFuture<PeakPyramid>> loading = new ConcurrentHashMap<>();
+    private long bytes;
+    private long hits;
+    private long misses;
+
+    //a file is the same as long as its size and modification time are
+    private record Key(Path file, long size, long modified) {
+        static Key of(Path file) throws IOException {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return new Key(file, attributes.size(), attributes.lastModifiedTime().toMillis());
+        }
+    }
+
+    public WaveformCache(long budget, PeakCache diskCache) {
+        if (budget < 1) {
+            throw new IllegalArgumentException("Cache budget must be positive.");
+        }
+        this.budget = budget;
+        this.diskCache = diskCache;
+        //counted in KiB so budgets beyond 2 GiB still fit a semaphore
+        this.budgetKib = (int) Math.min(Integer.MAX_VALUE, Math.max(1, budget >> 10));
+        this.decoding = new Semaphore(budgetKib, true);
+    }
+
+    public PeakPyramid peaks(Path audioFile) throws IOException, UnsupportedAudioFileException {
+        Key key = Key.of(audioFile.toAbsolutePath().normalize());
+        synchronized (this) {
+            PeakPyramid peaks = entries.get(key);
+            if (peaks != null) {
+                hits++;
+                return peaks;
+            }
+            misses++;
+        }
+
+        CompletableFuture<PeakPyramid> load = new CompletableFuture<>();
+        CompletableFuture<PeakPyramid> running = loading.putIfAbsent(key, load);
+        if (running == null) {
+            try {
+                //a load that finished between the miss above and putIfAbsent has already left its entry behind
+                PeakPyramid peaks;
+                synchronized (this) {
+                    peaks = entries.get(key);
+                    if (peaks != null) {
+                        misses--;
+                        hits++;
+                    }
+                }
+                if (peaks == null) {
+                    peaks = decode(key);
+                }
+                load.complete(peaks);
+            } catch (Throwable e) {
+                load.completeExceptionally(e);
+            } finally {
+                loading.remove(key, load);
+            }
+            running = load;
+        }
+        return join(running);
+    }
+
+    //decodes the file once its expected pyramid fits the budget next to the other decodes, and keeps the result
+    private PeakPyramid decode(Key key) throws IOException, UnsupportedAudioFileException {
+        File file = key.file().toFile();
+        long expected = PeakPyramid.byteSizeFor(AudioDecoders.estimatedFrameLength(file),
+                Waveform.COMPLETE_BUCKET_FRAMES);
+        int weight = (int) Math.min(budgetKib, Math.max(1, expected >> 10));
+        try {
+            decoding.acquire(weight);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to decode " + file + ".");
+        }
+        try {
+            PeakPyramid peaks = new AudioProcessor(DECODE_CANVAS)
+                    .withCache(diskCache)
+                    .waveformForAudio(file)
+                    .peaks();
+            put(key, peaks);
+            return peaks;
+        } finally {
+            decoding.release(weight);
+        }
+    }
+
+    private synchronized void put(Key key, PeakPyramid peaks) {
+        if (peaks.byteSize() > budget) {
+            //keeping it would evict everything else and still exceed the budget
+            return;
+        }
+        PeakPyramid previous = entries.put(key, peaks);
+        bytes += peaks.byteSize() - (previous == null ? 0 : previous.byteSize());
+        //the newest entry fits the budget, so eviction stops before reaching it
+        Iterator<Map.Entry<Key, PeakPyramid>> eldest = entries.entrySet().iterator();
+        while (bytes > budget) {
+            Map.Entry<Key, PeakPyramid> entry = eldest.next();
+            bytes -= entry.getValue().byteSize();
+            eldest.remove();
+        }
+    }
+
+    public synchronized String stats() {
+        return entries.size() + " waveforms, " + (bytes >> 10) + " of " + (budget >> 10) + " KiB, "
+                + hits + " hits, " + misses + " misses";
+    }
+
+    //rethrows what the shared decode failed with
+    private static PeakPyramid join(CompletableFuture<PeakPyramid> load) throws IOException, UnsupportedAudioFileException {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            switch (e.getCause()) {
+                case IOException io -> throw io;
+                case UnsupportedAudioFileException unsupported -> throw unsupported;
+                case RuntimeException runtime -> throw runtime;
+                case Error error -> throw error;
+                default -> throw new IOException("Unable to decode audio.", e.getCause());
+            }
+        }
+    }
+}
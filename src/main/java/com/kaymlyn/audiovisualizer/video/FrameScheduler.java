@@ -0,0 +1,85 @@
+package com.kaymlyn.audiovisualizer.video;
+
+import com.kaymlyn.audiovisualizer.audio.FrameSink;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+
+/**
+ * Renders independent frames in parallel and hands them to a sink in frame order.
+ * <p>
+ * Frames are submitted in order and kept in a window of at most maxInFlight pending results; the oldest one is always
+ * the next to go to the sink. That reorders the results for free and bounds memory to maxInFlight frames no matter how
+ * many frames are rendered. The render function must be safe to call from several threads at once.
+ */
+public final class FrameScheduler {
+
+    private final ExecutorService executor;
+    private final int maxInFlight;
+
+    //renders on a fresh virtual thread per frame
+    public FrameScheduler(int maxInFlight) {
+        this(null, maxInFlight);
+    }
+
+    //renders on the given executor, which is left running afterwards
+    public FrameScheduler(ExecutorService executor, int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("At least one frame must be allowed in flight.");
+        }
+        this.executor = executor;
+        this.maxInFlight = maxInFlight;
+    }
+
+    public static FrameScheduler parallel() {
+        return new FrameScheduler(Runtime.getRuntime().availableProcessors());
+    }
+
+    //one frame at a time, for renderers that keep state between consecutive frames
+    public static FrameScheduler sequential() {
+        return new FrameScheduler(1);
+    }
+
+    public void run(int firstFrame, int frameCount, IntFunction<BufferedImage> render, FrameSink sink) throws IOException {
+        if (executor != null) {
+            run(executor, firstFrame, frameCount, render, sink);
+        } else {
+            try (ExecutorService virtualThreads = Executors.newVirtualThreadPerTaskExecutor()) {
+                run(virtualThreads, firstFrame, frameCount, render, sink);
+            }
+        }
+    }
+
+    private void run(ExecutorService executor, int firstFrame, int frameCount, IntFunction<BufferedImage> render,
+                     FrameSink sink) throws IOException {
+        Deque<Future<BufferedImage>> window = new ArrayDeque<>(maxInFlight);
+        int nextSubmit = firstFrame;
+        int nextDeliver = firstFrame;
+        int end = firstFrame + frameCount;
+        try {
+            while (nextDeliver < end) {
+                while (nextSubmit < end && window.size() < maxInFlight) {
+                    int frame = nextSubmit++;
+                    window.addLast(executor.submit(() -> render.apply(frame)));
+                }
+                sink.accept(nextDeliver, window.removeFirst().get());
+                nextDeliver++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for frame " + nextDeliver + ".");
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to render frame " + nextDeliver + ".", e.getCause());
+        } finally {
+            window.forEach(pending -> pending.cancel(true));
+        }
+    }
+}
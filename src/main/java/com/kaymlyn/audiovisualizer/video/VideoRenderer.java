@@ -1,31 +1,141 @@
 package com.kaymlyn.audiovisualizer.video;
 
+import com.kaymlyn.audiovisualizer.audio.FrameSink;
+import com.kaymlyn.audiovisualizer.audio.Renderer;
 import com.kaymlyn.audiovisualizer.audio.SeriesRenderer;
+import com.kaymlyn.audiovisualizer.image.ImageOutput;
+import com.kaymlyn.audiovisualizer.metrics.Metrics;
+import com.kaymlyn.audiovisualizer.metrics.VideoFrameEvent;
+import org.jcodec.api.SequenceEncoder;
+import org.jcodec.common.io.NIOUtils;
+import org.jcodec.common.io.SeekableByteChannel;
+import org.jcodec.common.model.Rational;
+import org.jcodec.scale.AWTUtil;
 
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.util.List;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
+/**
+ * Turns a frame Renderer into a video. Frames are rendered by a {@link FrameScheduler} on a separate thread and handed
+ * to the encoder in order through a bounded queue, so rendering and encoding overlap while at most queueDepth plus the
+ * scheduler's in-flight frames are ever held in memory, however long the video is. A full queue blocks the renderers
+ * until the encoder catches up.
+ */
 public class VideoRenderer implements SeriesRenderer {
-//    public void thing() throws IOException {
-//        File output = new File("test.mp4");
-//        SequenceEncoder enc = SequenceEncoder.createWithFps(NIOUtils.writableChannel(output), new Rational(1, 1));
-//        String[] files = {"frame0.png", "frame1.png", "frame2.png"};
-//        for (String file : files) {
-////            enc.encodeNativeFrame(AWTUtil.fromBufferedImage(new File(file), ColorSpace.RGB));
-//        }
-//        enc.finish();
-//    }
+
+    public static final int DEFAULT_QUEUE_DEPTH = 8;
+
+    private final Renderer source;
+    private final int fps;
+    private final int frameCount;
+    private int firstIndex;
+    private int indexStep = 1;
+    private int queueDepth = DEFAULT_QUEUE_DEPTH;
+    private FrameScheduler scheduler;
+    private ImageOutput output = ImageOutput.DEFAULT;
+
+    private record Frame(int index, BufferedImage image, Throwable failure) {
+        private static final Frame END = new Frame(-1, null, null);
+    }
+
+    public VideoRenderer(Renderer source, int fps, int frameCount) {
+        this.source = source;
+        this.fps = fps;
+        this.frameCount = frameCount;
+        //frames of a stateful source run into each other's redraws when rendered out of order
+        this.scheduler = source.keepsState() ? FrameScheduler.sequential() : FrameScheduler.parallel();
+    }
+
+    //video frame n shows the source's frame index firstIndex + n * indexStep
+    public VideoRenderer withIndices(int firstIndex, int indexStep) {
+        this.firstIndex = firstIndex;
+        this.indexStep = indexStep;
+        return this;
+    }
+
+    public VideoRenderer withQueueDepth(int queueDepth) {
+        if (queueDepth < 1) {
+            throw new IllegalArgumentException("Queue depth must be at least 1.");
+        }
+        this.queueDepth = queueDepth;
+        return this;
+    }
+
+    //defaults to FrameScheduler.sequential() for sources that keep state between frames, parallel() otherwise
+    public VideoRenderer withScheduler(FrameScheduler scheduler) {
+        this.scheduler = scheduler;
+        return this;
+    }
+
+    //encoder settings of the frames written by renderFramesToFiles
+    public VideoRenderer withOutput(ImageOutput output) {
+        this.output = output;
+        return this;
+    }
+
+    //encodes every frame into an H.264 MP4 file
+    public void renderToFile(File videoFile) throws IOException {
+        try (SeekableByteChannel channel = NIOUtils.writableChannel(videoFile)) {
+            SequenceEncoder encoder = SequenceEncoder.createWithFps(channel, Rational.R(fps, 1));
+            renderFrames(0, frameCount, (frameIndex, frame) -> encoder.encodeNativeFrame(AWTUtil.fromBufferedImageRGB(frame)));
+            encoder.finish();
+        }
+    }
 
     @Override
-    public List<BufferedImage> renderFrames(int frameIndex, int fps, int framesPerCanvas) {
+    public void renderFrames(int firstFrame, int frameCount, FrameSink sink) throws IOException {
+        BlockingQueue<Frame> queue = new ArrayBlockingQueue<>(queueDepth);
+        Thread renderer = Thread.ofPlatform().name("video-frame-renderer").daemon().start(() -> {
+            try {
+                scheduler.run(firstFrame, frameCount, frame -> source.renderToImage(firstIndex + frame * indexStep),
+                        (frameIndex, image) -> {
+                            try {
+                                queue.put(new Frame(frameIndex, image, null));
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                throw new InterruptedIOException();
+                            }
+                        });
+                queue.put(Frame.END);
+            } catch (InterruptedException | InterruptedIOException e) {
+                //the encoding side gave up, nobody is waiting for more frames
+            } catch (IOException | RuntimeException | Error e) {
+                queue.clear();
+                queue.offer(new Frame(-1, null, e));
+            }
+        });
 
-        return null;
+        try {
+            Frame frame;
+            while ((frame = queue.take()) != Frame.END) {
+                if (frame.failure() != null) {
+                    throw new IOException("Unable to render frame.", frame.failure());
+                }
+                int depth = queue.size();
+                Metrics.observeQueueDepth(depth);
+                VideoFrameEvent event = new VideoFrameEvent(frame.index(), depth);
+                event.start();
+                sink.accept(frame.index(), frame.image());
+                event.finish(1, 0);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a frame.");
+        } finally {
+            renderer.interrupt();
+        }
     }
 
     @Override
     public void renderFramesToFiles(File imageDirectory) throws IOException {
-
+        if(!imageDirectory.exists() && !imageDirectory.mkdirs()) {
+            throw new IOException("Unable to create directory to store frames.");
+        }
+        renderFrames(0, frameCount, (frameIndex, frame) ->
+                output.write(frame, new File(imageDirectory, String.format("frame%06d.png", frameIndex))));
     }
 }